@@ -0,0 +1,84 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubApiClient;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.MockGithubOauthConfiguration;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures authenticating a user whose principal is already cached, through the client and through the realm, and authenticating a user
+ * who is not cached yet against a {@link GithubApiStubServer} that answers without latency. Every cold login uses a token of its own, so
+ * that each invocation really goes to Github.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class AuthzBenchmark {
+    private static final String LOGIN = "user-0";
+    private static final char[] TOKEN = "token-0".toCharArray();
+
+    @State(Scope.Benchmark)
+    public static class Github {
+        GithubApiStubServer server;
+        GithubApiClient client;
+        GithubOauthAuthenticatingRealm realm;
+        final AtomicLong tokens = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            server = new GithubApiStubServer(0, 10);
+            MockGithubOauthConfiguration config = new MockGithubOauthConfiguration(Duration.ofDays(1));
+            config.setGithubApiUrl(server.getApiUrl());
+            config.setGithubOrg("");
+            config.setRequestPoolSize(512);
+            client = new GithubApiClient(config);
+            client.start();
+            realm = new GithubOauthAuthenticatingRealm(client);
+            client.authz(LOGIN, TOKEN);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            client.stop();
+            server.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public GithubPrincipal cacheHit(Github github) throws GithubAuthenticationException {
+        return github.client.authz(LOGIN, TOKEN);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public AuthenticationInfo realmCacheHit(Github github) {
+        return github.realm.getAuthenticationInfo(new UsernamePasswordToken(LOGIN, TOKEN));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public GithubPrincipal coldMiss(Github github) throws GithubAuthenticationException {
+        long user = github.tokens.incrementAndGet();
+        return github.client.authz("user-" + user, ("token-" + user).toCharArray());
+    }
+}
@@ -0,0 +1,103 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubApiClient;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.MockGithubOauthConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares calling Github on platform threads with calling it on virtual threads, for a burst of concurrent cold logins against a
+ * {@link GithubApiStubServer} with latency. The logins are made by a pool of request threads, like Jetty's, and every burst starts with an
+ * empty principal cache. Virtual threads require a JDK 21 or later to run this on, otherwise both parameters use platform threads.
+ */
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ColdLoginBenchmark {
+    private static final int REQUEST_THREADS = 200;
+
+    @State(Scope.Benchmark)
+    public static class Github {
+        @Param({"50"})
+        long latencyMillis;
+
+        GithubApiStubServer server;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            server = new GithubApiStubServer(latencyMillis, 10);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Burst {
+        @Param({"false", "true"})
+        String virtualThreads;
+
+        @Param({"1000"})
+        int logins;
+
+        GithubApiClient client;
+        ExecutorService requestThreads;
+
+        @Setup(Level.Invocation)
+        public void setUp(Github github) throws Exception {
+            MockGithubOauthConfiguration config = new MockGithubOauthConfiguration(Duration.ofDays(1));
+            config.setGithubApiUrl(github.server.getApiUrl());
+            config.setGithubOrg("");
+            config.setRequestExecutorVirtualThreads(virtualThreads);
+            // Let the threads, not the connection pool, be the limit
+            config.setRequestPoolSize(logins * 3);
+            client = new GithubApiClient(config);
+            client.start();
+            requestThreads = Executors.newFixedThreadPool(REQUEST_THREADS);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws Exception {
+            requestThreads.shutdownNow();
+            client.stop();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<GithubPrincipal> burst(Burst burst) throws Exception {
+        List<Future<GithubPrincipal>> logins = new ArrayList<>(burst.logins);
+        for (int i = 0; i < burst.logins; i++) {
+            String login = "user-" + i;
+            char[] token = ("token-" + i).toCharArray();
+            logins.add(burst.requestThreads.submit(() -> burst.client.authz(login, token)));
+        }
+        List<GithubPrincipal> principals = new ArrayList<>(burst.logins);
+        for (Future<GithubPrincipal> login : logins) {
+            principals.add(login.get());
+        }
+        return principals;
+    }
+}
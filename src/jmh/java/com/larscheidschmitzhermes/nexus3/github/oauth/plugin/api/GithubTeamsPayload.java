@@ -0,0 +1,84 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds <code>/user/teams</code> pages shaped like Github's, with every field a team and its organization carry, so that parsing them costs
+ * what parsing the real ones does. The teams are spread over a handful of organizations.
+ */
+final class GithubTeamsPayload {
+    static final int ORGANIZATIONS = 5;
+
+    private GithubTeamsPayload() {
+    }
+
+    static String organization(int team) {
+        return "org-" + team % ORGANIZATIONS;
+    }
+
+    static String team(int team) {
+        return "Team " + team;
+    }
+
+    static byte[] teams(int teamCount) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < teamCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String org = organization(i);
+            String slug = "team-" + i;
+            String teamUrl = "https://api.github.com/organizations/" + i % ORGANIZATIONS + "/team/" + i;
+            String orgUrl = "https://api.github.com/orgs/" + org;
+            json.append('{')
+                    .append("\"name\":\"").append(team(i)).append("\",")
+                    .append("\"id\":").append(1000000 + i).append(',')
+                    .append("\"node_id\":\"MDQ6VGVhbTEwMDAw").append(i).append("\",")
+                    .append("\"slug\":\"").append(slug).append("\",")
+                    .append("\"description\":\"Maintainers of the ").append(slug).append(" repositories\",")
+                    .append("\"privacy\":\"closed\",")
+                    .append("\"notification_setting\":\"notifications_enabled\",")
+                    .append("\"url\":\"").append(teamUrl).append("\",")
+                    .append("\"html_url\":\"https://github.com/orgs/").append(org).append("/teams/").append(slug).append("\",")
+                    .append("\"members_url\":\"").append(teamUrl).append("/members{/member}\",")
+                    .append("\"repositories_url\":\"").append(teamUrl).append("/repos\",")
+                    .append("\"permission\":\"pull\",")
+                    .append("\"parent\":null,")
+                    .append("\"members_count\":").append(3 + i % 40).append(',')
+                    .append("\"repos_count\":").append(i % 25).append(',')
+                    .append("\"created_at\":\"2017-07-14T16:53:42Z\",")
+                    .append("\"updated_at\":\"2022-08-17T22:23:03Z\",")
+                    .append("\"organization\":{")
+                    .append("\"login\":\"").append(org).append("\",")
+                    .append("\"id\":").append(i % ORGANIZATIONS).append(',')
+                    .append("\"node_id\":\"MDEyOk9yZ2FuaXphdGlvbjE=\",")
+                    .append("\"url\":\"").append(orgUrl).append("\",")
+                    .append("\"repos_url\":\"").append(orgUrl).append("/repos\",")
+                    .append("\"events_url\":\"").append(orgUrl).append("/events\",")
+                    .append("\"hooks_url\":\"").append(orgUrl).append("/hooks\",")
+                    .append("\"issues_url\":\"").append(orgUrl).append("/issues\",")
+                    .append("\"members_url\":\"").append(orgUrl).append("/members{/member}\",")
+                    .append("\"public_members_url\":\"").append(orgUrl).append("/public_members{/member}\",")
+                    .append("\"avatar_url\":\"https://avatars.githubusercontent.com/u/").append(i % ORGANIZATIONS).append("?v=4\",")
+                    .append("\"description\":\"A great organization\",")
+                    .append("\"name\":\"Organization ").append(i % ORGANIZATIONS).append("\",")
+                    .append("\"company\":null,")
+                    .append("\"blog\":\"https://github.com/blog\",")
+                    .append("\"location\":\"San Francisco\",")
+                    .append("\"email\":\"octocat@github.com\",")
+                    .append("\"is_verified\":true,")
+                    .append("\"has_organization_projects\":true,")
+                    .append("\"has_repository_projects\":true,")
+                    .append("\"public_repos\":2,")
+                    .append("\"public_gists\":1,")
+                    .append("\"followers\":20,")
+                    .append("\"following\":0,")
+                    .append("\"html_url\":\"https://github.com/").append(org).append("\",")
+                    .append("\"created_at\":\"2008-01-14T04:33:35Z\",")
+                    .append("\"updated_at\":\"2014-03-03T18:58:10Z\",")
+                    .append("\"type\":\"Organization\"")
+                    .append("}}");
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
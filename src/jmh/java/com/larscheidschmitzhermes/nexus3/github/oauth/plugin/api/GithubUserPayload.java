@@ -0,0 +1,63 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds <code>/user</code> and <code>/user/orgs</code> responses shaped like Github's, with every field a user and an organization carry,
+ * so that binding them costs what binding the real ones does.
+ */
+final class GithubUserPayload {
+    private GithubUserPayload() {
+    }
+
+    static byte[] user() {
+        return ("{"
+                + "\"login\":\"octocat\",\"id\":1,\"node_id\":\"MDQ6VXNlcjE=\","
+                + "\"avatar_url\":\"https://github.com/images/error/octocat_happy.gif\",\"gravatar_id\":\"\","
+                + "\"url\":\"https://api.github.com/users/octocat\",\"html_url\":\"https://github.com/octocat\","
+                + "\"followers_url\":\"https://api.github.com/users/octocat/followers\","
+                + "\"following_url\":\"https://api.github.com/users/octocat/following{/other_user}\","
+                + "\"gists_url\":\"https://api.github.com/users/octocat/gists{/gist_id}\","
+                + "\"starred_url\":\"https://api.github.com/users/octocat/starred{/owner}{/repo}\","
+                + "\"subscriptions_url\":\"https://api.github.com/users/octocat/subscriptions\","
+                + "\"organizations_url\":\"https://api.github.com/users/octocat/orgs\","
+                + "\"repos_url\":\"https://api.github.com/users/octocat/repos\","
+                + "\"events_url\":\"https://api.github.com/users/octocat/events{/privacy}\","
+                + "\"received_events_url\":\"https://api.github.com/users/octocat/received_events\","
+                + "\"type\":\"User\",\"site_admin\":false,\"name\":\"monalisa octocat\",\"company\":\"GitHub\","
+                + "\"blog\":\"https://github.com/blog\",\"location\":\"San Francisco\",\"email\":\"octocat@github.com\","
+                + "\"hireable\":false,\"bio\":\"There once was...\",\"twitter_username\":\"monatheoctocat\","
+                + "\"public_repos\":2,\"public_gists\":1,\"followers\":20,\"following\":0,"
+                + "\"created_at\":\"2008-01-14T04:33:35Z\",\"updated_at\":\"2008-01-14T04:33:35Z\","
+                + "\"private_gists\":81,\"total_private_repos\":100,\"owned_private_repos\":100,\"disk_usage\":10000,"
+                + "\"collaborators\":8,\"two_factor_authentication\":true,"
+                + "\"plan\":{\"name\":\"Medium\",\"space\":400,\"private_repos\":20,\"collaborators\":0}"
+                + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] organizations(int organizationCount) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < organizationCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String org = "org-" + i;
+            String orgUrl = "https://api.github.com/orgs/" + org;
+            json.append('{')
+                    .append("\"login\":\"").append(org).append("\",")
+                    .append("\"id\":").append(i).append(',')
+                    .append("\"node_id\":\"MDEyOk9yZ2FuaXphdGlvbjE=\",")
+                    .append("\"url\":\"").append(orgUrl).append("\",")
+                    .append("\"repos_url\":\"").append(orgUrl).append("/repos\",")
+                    .append("\"events_url\":\"").append(orgUrl).append("/events\",")
+                    .append("\"hooks_url\":\"").append(orgUrl).append("/hooks\",")
+                    .append("\"issues_url\":\"").append(orgUrl).append("/issues\",")
+                    .append("\"members_url\":\"").append(orgUrl).append("/members{/member}\",")
+                    .append("\"public_members_url\":\"").append(orgUrl).append("/public_members{/member}\",")
+                    .append("\"avatar_url\":\"https://avatars.githubusercontent.com/u/").append(i).append("?v=4\",")
+                    .append("\"description\":\"A great organization\"")
+                    .append('}');
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
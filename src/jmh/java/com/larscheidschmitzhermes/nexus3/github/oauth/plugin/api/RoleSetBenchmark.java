@@ -0,0 +1,55 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the role set of a user who is a member of 10, 100 or 1,000 teams from the organizations and team names read off
+ * <code>/user/teams</code>, the way the client does: each role is interned as it is mapped and the finished set is interned as a whole.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class RoleSetBenchmark {
+    @Param({"10", "100", "1000"})
+    int teams;
+
+    private final RoleInterner roleInterner = new RoleInterner();
+    private String[] organizations;
+    private String[] teamNames;
+
+    @Setup
+    public void setUp() {
+        organizations = new String[teams];
+        teamNames = new String[teams];
+        for (int i = 0; i < teams; i++) {
+            organizations[i] = GithubTeamsPayload.organization(i);
+            teamNames[i] = GithubTeamsPayload.team(i);
+        }
+    }
+
+    @Benchmark
+    public Set<String> roleSet() {
+        Set<String> roles = new HashSet<>();
+        for (int i = 0; i < teams; i++) {
+            roles.add(roleInterner.intern(organizations[i] + "/" + teamNames[i]));
+        }
+        return roleInterner.intern(roles);
+    }
+}
@@ -0,0 +1,56 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a page of <code>/user/teams</code> with the streaming {@link GithubTeamsParser} the client uses, and, for comparison,
+ * binding it to {@link GithubTeam} objects. Github returns at most 100 teams per page.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TeamsJsonBenchmark {
+    @Param({"10", "100"})
+    int teams;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final GithubTeamsParser parser = new GithubTeamsParser(mapper.getFactory());
+    private byte[] page;
+
+    @Setup
+    public void setUp() {
+        page = GithubTeamsPayload.teams(teams);
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws IOException {
+        parser.parse(new ByteArrayInputStream(page), "name", (organization, team) -> {
+            blackhole.consume(organization);
+            blackhole.consume(team);
+        });
+    }
+
+    @Benchmark
+    public GithubTeam[] databind() throws IOException {
+        return mapper.readValue(new ByteArrayInputStream(page), GithubTeam[].class);
+    }
+}
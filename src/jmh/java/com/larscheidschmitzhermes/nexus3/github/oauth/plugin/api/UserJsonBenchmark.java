@@ -0,0 +1,76 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures binding <code>/user</code> and a page of <code>/user/orgs</code> with the readers the client builds once, and, for comparison,
+ * the way the client used to: through a {@link InputStreamReader} with a collection type built on every call. Github returns at most 100
+ * organizations per page.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class UserJsonBenchmark {
+    @Param({"10", "100"})
+    int organizations;
+
+    private final ObjectMapper mapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final ObjectReader userReader = mapper.readerFor(GithubUser.class);
+    private final ObjectReader orgsReader = mapper.readerFor(GithubOrg[].class);
+    private byte[] user;
+    private byte[] organizationPage;
+
+    @Setup
+    public void setUp() {
+        user = GithubUserPayload.user();
+        organizationPage = GithubUserPayload.organizations(organizations);
+    }
+
+    @Benchmark
+    public GithubUser user() throws IOException {
+        return userReader.readValue(new ByteArrayInputStream(user));
+    }
+
+    @Benchmark
+    public Set<String> organizations() throws IOException {
+        Set<String> logins = new HashSet<>();
+        for (GithubOrg org : orgsReader.<GithubOrg[]>readValue(new ByteArrayInputStream(organizationPage))) {
+            logins.add(org.getLogin());
+        }
+        return logins;
+    }
+
+    @Benchmark
+    public Set<String> organizationsThroughACharacterStream() throws IOException {
+        JavaType type = mapper.getTypeFactory().constructCollectionType(Set.class, GithubOrg.class);
+        Set<GithubOrg> orgs = mapper.readValue(new InputStreamReader(new ByteArrayInputStream(organizationPage), StandardCharsets.UTF_8), type);
+        Set<String> logins = new HashSet<>();
+        orgs.forEach(org -> logins.add(org.getLogin()));
+        return logins;
+    }
+}
@@ -0,0 +1,35 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Logs an event of a user at INFO at most once per interval, and all others at DEBUG. Nexus authenticates the credentials of every single
+ * request, so logging each of them at INFO would flood the log of a busy instance.
+ */
+class AuditLog {
+    private final Logger logger;
+
+    private final Cache<String, Boolean> recentlyLogged;
+
+    AuditLog(Logger logger, Duration interval, long maxUsers) {
+        this.logger = logger;
+        recentlyLogged = CacheBuilder.newBuilder()
+                .expireAfterWrite(interval.toMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(maxUsers)
+                .build();
+    }
+
+    void log(String message, String user) {
+        if (recentlyLogged.asMap().putIfAbsent(user, Boolean.TRUE) == null) {
+            logger.info(message, user);
+        } else if (logger.isDebugEnabled()) {
+            logger.debug(message, user);
+        }
+    }
+}
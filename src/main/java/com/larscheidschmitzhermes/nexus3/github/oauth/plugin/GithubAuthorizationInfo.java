@@ -0,0 +1,37 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The roles of a {@link GithubPrincipal}, which never change for the lifetime of the principal. Unlike a
+ * <code>SimpleAuthorizationInfo</code> it is immutable, so one instance can be handed out for every permission check of the principal.
+ */
+final class GithubAuthorizationInfo implements AuthorizationInfo {
+    private final ImmutableSet<String> roles;
+
+    GithubAuthorizationInfo(Set<String> roles) {
+        // The roles are interned immutable sets already, which copyOf returns as they are
+        this.roles = ImmutableSet.copyOf(roles);
+    }
+
+    @Override
+    public Collection<String> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public Collection<String> getStringPermissions() {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public Collection<Permission> getObjectPermissions() {
+        return ImmutableSet.of();
+    }
+}
@@ -12,11 +12,14 @@
  */
 package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubApiClient;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.GithubOauthConfiguration;
 import org.apache.shiro.authc.*;
 import org.apache.shiro.authc.pam.UnsupportedTokenException;
 import org.apache.shiro.authz.AuthorizationInfo;
-import org.apache.shiro.authz.SimpleAuthorizationInfo;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.eclipse.sisu.Description;
@@ -26,7 +29,10 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
-import java.util.stream.Collectors;
+import java.time.Duration;
+import java.util.Base64;
+
+import static com.codahale.metrics.MetricRegistry.name;
 
 /**
  * The Class GithubOauthAuthenticatingRealm.
@@ -39,10 +45,114 @@ public class GithubOauthAuthenticatingRealm extends AuthorizingRealm {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(GithubOauthAuthenticatingRealm.class);
 	public static final String NAME = GithubOauthAuthenticatingRealm.class.getName();
+	private static final AuditLog AUDIT_LOG = new AuditLog(LOGGER, Duration.ofMinutes(1), 10000);
+
+	private final Timer authentications;
+	private final Meter succeeded;
+	private final Meter failed;
+	private final Meter unavailable;
+	private final Meter authorizations;
+	// Whether authentications are cached by the realm, keyed by and matched against the hash of their token. Written by the configuration
+	// listener and read by every authentication.
+	private volatile boolean hashingTokens;
 
-	@Inject
 	public GithubOauthAuthenticatingRealm(GithubApiClient githubClient) {
+		this(githubClient, new MetricRegistry());
+	}
+
+	@Inject
+	public GithubOauthAuthenticatingRealm(GithubApiClient githubClient, GithubOauthConfiguration configuration, MetricRegistry metricRegistry) {
+		this(githubClient, metricRegistry);
+		if (configuration.isRealmCacheEnabled()) {
+			enableCaching(configuration);
+		}
+		configuration.addListener(changed -> {
+			if (GithubOauthConfiguration.anyChanged(changed, "github.realm.cache.", "github.principal.cache.ttl")) {
+				if (configuration.isRealmCacheEnabled()) {
+					enableCaching(configuration);
+				} else {
+					disableCaching();
+				}
+			}
+		});
+	}
+
+	public GithubOauthAuthenticatingRealm(GithubApiClient githubClient, MetricRegistry metricRegistry) {
 		this.githubClient = githubClient;
+		authentications = metricRegistry.timer(name(GithubOauthAuthenticatingRealm.class, "authentication"));
+		succeeded = metricRegistry.meter(name(GithubOauthAuthenticatingRealm.class, "authentication", "succeeded"));
+		failed = metricRegistry.meter(name(GithubOauthAuthenticatingRealm.class, "authentication", "failed"));
+		// The credentials could not be checked at all, because Github was unavailable or the rate limit was used up
+		unavailable = metricRegistry.meter(name(GithubOauthAuthenticatingRealm.class, "authentication", "unavailable"));
+		authorizations = metricRegistry.meter(name(GithubOauthAuthenticatingRealm.class, "authorization"));
+	}
+
+	/**
+	 * Caches authentications and authorizations in the realm, so that repeated requests of a user are answered by Shiro before they reach
+	 * the realm, let alone the principal cache of the {@link GithubApiClient}. The caches are set on the realm directly, so a cache manager
+	 * Nexus sets later on doesn't replace them.
+	 */
+	private void enableCaching(GithubOauthConfiguration configuration) {
+		// Not longer than the principal cache, the realm would otherwise keep principals the client has long dropped
+		Duration ttl = configuration.getRealmCacheTtl().compareTo(configuration.getPrincipalCacheTtl()) < 0
+				? configuration.getRealmCacheTtl() : configuration.getPrincipalCacheTtl();
+		long maxSize = configuration.getRealmCacheMaxSize();
+		// Set before the flag, whose write publishes it, so no authentication hashes its token without a matcher for the hash
+		setCredentialsMatcher(new HashedTokenCredentialsMatcher(githubClient::hashToken));
+		hashingTokens = true;
+		setAuthenticationCache(new GithubRealmCache<Object, AuthenticationInfo>(ttl, maxSize,
+				(key, info) -> isInvalidated(info.getPrincipals())));
+		setAuthorizationCache(new GithubRealmCache<Object, AuthorizationInfo>(ttl, maxSize,
+				(principals, info) -> !(principals instanceof PrincipalCollection) || isInvalidated((PrincipalCollection) principals)));
+		setAuthenticationCachingEnabled(true);
+		setAuthorizationCachingEnabled(true);
+		LOGGER.info("Caching authentications and authorizations in the realm for {}", ttl);
+	}
+
+	/**
+	 * Drops the caches again. The matcher is kept, authentications that are under way may still come with the hash of their token.
+	 */
+	private void disableCaching() {
+		setAuthenticationCachingEnabled(false);
+		setAuthorizationCachingEnabled(false);
+		setAuthenticationCache(null);
+		setAuthorizationCache(null);
+		LOGGER.info("Not caching authentications and authorizations in the realm anymore");
+	}
+
+	private static boolean isInvalidated(PrincipalCollection principals) {
+		Object principal = principals.getPrimaryPrincipal();
+		return !(principal instanceof GithubPrincipal) || ((GithubPrincipal) principal).isInvalidated();
+	}
+
+	@Override
+	protected Object getAuthenticationCacheKey(AuthenticationToken token) {
+		if (!hashingTokens || !(token instanceof UsernamePasswordToken)) {
+			return super.getAuthenticationCacheKey(token);
+		}
+		UsernamePasswordToken t = (UsernamePasswordToken) token;
+		return authenticationCacheKey(t.getUsername(), githubClient.hashToken(t.getPassword()));
+	}
+
+	/**
+	 * Shiro looks the cached authentication up by the token, but removes it by the principals on logout. Both have to come up with the same
+	 * key, which the principals can only do by remembering it.
+	 */
+	@Override
+	protected Object getAuthenticationCacheKey(PrincipalCollection principals) {
+		Object principal = principals == null ? null : principals.getPrimaryPrincipal();
+		if (hashingTokens && principal instanceof GithubPrincipal) {
+			Object key = ((GithubPrincipal) principal).getAuthenticationCacheKey();
+			if (key != null) {
+				return key;
+			}
+		}
+		return super.getAuthenticationCacheKey(principals);
+	}
+
+	private static String authenticationCacheKey(String login, byte[] tokenHash) {
+		// One entry per login and token, users may well use several tokens at the same time
+		return login + ":" + Base64.getEncoder().encodeToString(tokenHash);
 	}
 
 	/*
@@ -75,9 +185,20 @@ public class GithubOauthAuthenticatingRealm extends AuthorizingRealm {
 	 */
 	@Override
 	protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+		authorizations.mark();
 		GithubPrincipal user = (GithubPrincipal) principals.getPrimaryPrincipal();
-		LOGGER.info("doGetAuthorizationInfo for user {} with roles {}", user.getUsername(), user.getRoles().stream().collect(Collectors.joining(", ")));
-		return new SimpleAuthorizationInfo(user.getRoles());
+		AuthorizationInfo authorizationInfo = user.getAuthorizationInfo();
+		if (authorizationInfo == null) {
+			// Runs once per principal, that is once per login until the principal is loaded from Github again
+			authorizationInfo = new GithubAuthorizationInfo(user.getRoles());
+			user.setAuthorizationInfo(authorizationInfo);
+			if (LOGGER.isInfoEnabled()) {
+				LOGGER.info("Authorizing user {} with roles {}", user.getUsername(), String.join(", ", user.getRoles()));
+			}
+		} else {
+			LOGGER.trace("doGetAuthorizationInfo for user {}", user);
+		}
+		return authorizationInfo;
 	}
 
 	/*
@@ -95,14 +216,24 @@ public class GithubOauthAuthenticatingRealm extends AuthorizingRealm {
 		}
 
 		UsernamePasswordToken t = (UsernamePasswordToken) token;
-		LOGGER.info("doGetAuthenticationInfo for {}", ((UsernamePasswordToken) token).getUsername());
+		LOGGER.debug("doGetAuthenticationInfo for {}", t.getUsername());
 		GithubPrincipal authenticatedPrincipal;
+		Timer.Context authentication = authentications.time();
 		try {
 			authenticatedPrincipal = githubClient.authz(t.getUsername(), t.getPassword());
-			LOGGER.info("Successfully authenticated {}",t.getUsername());
+			succeeded.mark();
+			AUDIT_LOG.log("Successfully authenticated {}", t.getUsername());
+		} catch (GithubRateLimitException | GithubUnavailableException e) {
+			// Not a failed login, the credentials could not be checked at all
+			unavailable.mark();
+			LOGGER.warn("Could not authenticate {}: {}", t.getUsername(), e.getMessage());
+			throw new AuthenticationException(e.getMessage(), e);
 		} catch (GithubAuthenticationException e) {
+			failed.mark();
 			LOGGER.warn("Failed authentication", e);
 			return null;
+		} finally {
+			authentication.stop();
 		}
 
 		return createSimpleAuthInfo(authenticatedPrincipal, t);
@@ -116,7 +247,13 @@ public class GithubOauthAuthenticatingRealm extends AuthorizingRealm {
 	 * @return the simple authentication info
 	 */
 	private SimpleAuthenticationInfo createSimpleAuthInfo(GithubPrincipal principal, UsernamePasswordToken token) {
-		return new SimpleAuthenticationInfo(principal, token.getCredentials(), NAME);
+		if (!hashingTokens) {
+			return new SimpleAuthenticationInfo(principal, token.getCredentials(), NAME);
+		}
+		// A cached authentication info keeps the hash of the token only
+		byte[] tokenHash = githubClient.hashToken(token.getPassword());
+		principal.setAuthenticationCacheKey(authenticationCacheKey(token.getUsername(), tokenHash));
+		return new SimpleAuthenticationInfo(principal, tokenHash, NAME);
 	}
 
 }
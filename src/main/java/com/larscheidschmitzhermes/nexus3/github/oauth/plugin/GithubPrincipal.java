@@ -3,10 +3,18 @@ package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
 import java.io.Serializable;
 import java.util.Set;
 
+import org.apache.shiro.authz.AuthorizationInfo;
+
 public class GithubPrincipal implements Serializable {
     private String username;
     private char[] oauthToken;
     private Set<String> roles;
+    // Built from the roles on the first permission check of the principal and reused for all others
+    private transient volatile AuthorizationInfo authorizationInfo;
+    // Set once the principal has been refreshed or evicted, the realm's caches must not serve it anymore
+    private transient volatile boolean invalidated;
+    // The key the realm cached the authentication of the principal under, if it caches authentications
+    private transient volatile Object authenticationCacheKey;
 
     public void setUsername(String username) {
         this.username = username;
@@ -18,6 +26,7 @@ public class GithubPrincipal implements Serializable {
 
     public void setRoles(Set<String> roles) {
         this.roles = roles;
+        this.authorizationInfo = null;
     }
 
     public String getUsername() {
@@ -32,6 +41,30 @@ public class GithubPrincipal implements Serializable {
         return roles;
     }
 
+    public void invalidate() {
+        this.invalidated = true;
+    }
+
+    public boolean isInvalidated() {
+        return invalidated;
+    }
+
+    AuthorizationInfo getAuthorizationInfo() {
+        return authorizationInfo;
+    }
+
+    void setAuthorizationInfo(AuthorizationInfo authorizationInfo) {
+        this.authorizationInfo = authorizationInfo;
+    }
+
+    Object getAuthenticationCacheKey() {
+        return authenticationCacheKey;
+    }
+
+    void setAuthenticationCacheKey(Object authenticationCacheKey) {
+        this.authenticationCacheKey = authenticationCacheKey;
+    }
+
     @Override
     public String toString() {
         return username;
@@ -0,0 +1,19 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import java.time.Instant;
+
+/**
+ * Github refused or would refuse a call because the rate limit is used up. This says nothing about the validity of the token.
+ */
+public class GithubRateLimitException extends GithubAuthenticationException {
+    private final long retryAtMillis;
+
+    public GithubRateLimitException(long retryAtMillis) {
+        super("Github rate limit exceeded, retry after " + Instant.ofEpochMilli(retryAtMillis) + ".");
+        this.retryAtMillis = retryAtMillis;
+    }
+
+    public long getRetryAtMillis() {
+        return retryAtMillis;
+    }
+}
@@ -0,0 +1,71 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+import org.apache.shiro.cache.Cache;
+
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A bounded Shiro cache whose entries expire a fixed time after they were cached. Entries that hold a principal that has been invalidated
+ * since, because {@link com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubApiClient} refreshed or evicted it, are treated
+ * as missing, so the realm looks the principal up again.
+ */
+class GithubRealmCache<K, V> implements Cache<K, V> {
+    private final com.google.common.cache.Cache<K, V> cache;
+
+    private final BiPredicate<K, V> isInvalidated;
+
+    GithubRealmCache(Duration ttl, long maxSize, BiPredicate<K, V> isInvalidated) {
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(maxSize)
+                .build();
+        this.isInvalidated = isInvalidated;
+    }
+
+    @Override
+    public V get(K key) {
+        V value = cache.getIfPresent(key);
+        if (value != null && isInvalidated.test(key, value)) {
+            cache.asMap().remove(key, value);
+            return null;
+        }
+        return value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return cache.asMap().put(key, value);
+    }
+
+    @Override
+    public V remove(K key) {
+        return cache.asMap().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public int size() {
+        return (int) cache.size();
+    }
+
+    @Override
+    public Set<K> keys() {
+        return Collections.unmodifiableSet(cache.asMap().keySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        return Collections.unmodifiableCollection(cache.asMap().values());
+    }
+}
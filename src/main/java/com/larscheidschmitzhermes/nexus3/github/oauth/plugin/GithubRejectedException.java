@@ -0,0 +1,11 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+/**
+ * Github rejected the credentials: the token is invalid or lacks a scope, it belongs to another user than the given login, or the user is
+ * in none of the allowed organizations. Unlike the other failures, asking Github again soon will not change the answer.
+ */
+public class GithubRejectedException extends GithubAuthenticationException {
+    public GithubRejectedException(String message) {
+        super(message);
+    }
+}
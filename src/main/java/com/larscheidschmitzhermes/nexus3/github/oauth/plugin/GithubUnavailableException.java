@@ -0,0 +1,14 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+/**
+ * Github could not be reached or failed to answer. This says nothing about the validity of the token.
+ */
+public class GithubUnavailableException extends GithubAuthenticationException {
+    public GithubUnavailableException(String message) {
+        super(message);
+    }
+
+    public GithubUnavailableException(Throwable cause) {
+        super(cause);
+    }
+}
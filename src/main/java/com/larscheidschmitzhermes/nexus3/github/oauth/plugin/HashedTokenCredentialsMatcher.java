@@ -0,0 +1,41 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import java.security.MessageDigest;
+import java.util.function.Function;
+
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.authc.credential.CredentialsMatcher;
+
+/**
+ * Matches the token of a login against the hash of the token it was authenticated with, so that cached authentication infos don't have to
+ * hold on to the token itself. The hash is keyed like the one of the principal cache, so guessed tokens can't be checked against it without
+ * the key.
+ */
+class HashedTokenCredentialsMatcher implements CredentialsMatcher {
+    private final Function<char[], byte[]> hash;
+
+    HashedTokenCredentialsMatcher(Function<char[], byte[]> hash) {
+        this.hash = hash;
+    }
+
+    @Override
+    public boolean doCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) {
+        Object credentials = info.getCredentials();
+        if (!(token instanceof UsernamePasswordToken)) {
+            return false;
+        }
+        byte[] expected;
+        if (credentials instanceof byte[]) {
+            expected = (byte[]) credentials;
+        } else if (credentials instanceof char[]) {
+            // An authentication that was under way while the realm started caching still comes with the token itself
+            expected = hash.apply((char[]) credentials);
+        } else {
+            return false;
+        }
+        // Compared in constant time, like any other credentials
+        return MessageDigest.isEqual(hash.apply(((UsernamePasswordToken) token).getPassword()), expected);
+    }
+}
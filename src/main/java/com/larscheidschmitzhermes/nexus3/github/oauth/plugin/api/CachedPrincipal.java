@@ -0,0 +1,28 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubPrincipal;
+
+/**
+ * A cached {@link GithubPrincipal} along with the time it was loaded from Github.
+ */
+class CachedPrincipal {
+    private final GithubPrincipal principal;
+    private final long loadedAtMillis;
+
+    CachedPrincipal(GithubPrincipal principal, long loadedAtMillis) {
+        this.principal = principal;
+        this.loadedAtMillis = loadedAtMillis;
+    }
+
+    GithubPrincipal getPrincipal() {
+        return principal;
+    }
+
+    long getLoadedAtMillis() {
+        return loadedAtMillis;
+    }
+
+    boolean isOlderThan(long ageMillis, long nowMillis) {
+        return nowMillis - loadedAtMillis >= ageMillis;
+    }
+}
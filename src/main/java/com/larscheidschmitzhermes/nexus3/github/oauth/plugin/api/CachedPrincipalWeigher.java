@@ -0,0 +1,28 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import com.google.common.cache.Weigher;
+
+/**
+ * Weighs a cached principal by a rough estimate of the heap it retains in bytes, which is dominated by its role names. Roles interned by
+ * the {@link RoleInterner} are shared with other principals of the same roles, but a shared set lives as long as any of them, so every
+ * principal is weighed with its roles in full. That over-counts shared sets rather than letting the cache outgrow its maximum weight.
+ */
+class CachedPrincipalWeigher implements Weigher<PrincipalCacheKey, CachedPrincipal> {
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private static final int ROLE_OVERHEAD = 64;
+
+    @Override
+    public int weigh(PrincipalCacheKey cacheKey, CachedPrincipal cached) {
+        long weight = ENTRY_OVERHEAD + 2L * cacheKey.getLogin().length() + cacheKey.getTokenHash().length;
+        if (cached.getPrincipal().getUsername() != null) {
+            weight += 2L * cached.getPrincipal().getUsername().length();
+        }
+        if (cached.getPrincipal().getRoles() != null) {
+            for (String role : cached.getPrincipal().getRoles()) {
+                weight += ROLE_OVERHEAD + 2L * role.length();
+            }
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+}
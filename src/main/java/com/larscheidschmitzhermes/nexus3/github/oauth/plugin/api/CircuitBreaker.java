@@ -0,0 +1,124 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubUnavailableException;
+
+/**
+ * Stops calling Github for a while once it failed or answered too slowly a number of times in a row, so that requests fail fast instead of
+ * holding a thread each until they time out. After that a single trial call decides whether Github is available again.
+ */
+class CircuitBreaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private volatile int failureThreshold;
+    private volatile long slowCallMillis;
+    private volatile long openMillis;
+
+    private volatile State state = State.CLOSED;
+    private volatile int consecutiveFailures;
+    private long openUntilMillis;
+    private boolean trialInFlight;
+
+    /**
+     * @param failureThreshold the number of failed or slow calls in a row that open the circuit, zero to never open it
+     * @param slowCallMillis   the duration after which a call counts as failed even if Github answered, zero to disable
+     * @param openMillis       how long the circuit stays open before a trial call is let through
+     */
+    CircuitBreaker(int failureThreshold, long slowCallMillis, long openMillis) {
+        configure(failureThreshold, slowCallMillis, openMillis);
+    }
+
+    /**
+     * Changes the thresholds for the calls from now on. The state is kept, an open circuit stays open until it was due to close.
+     */
+    synchronized void configure(int failureThreshold, long slowCallMillis, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Must be followed by {@link #onResponse(long)}, {@link #onFailure()} or {@link #release()} once the call is done.
+     *
+     * @throws GithubUnavailableException if the circuit is open
+     */
+    void acquire() throws GithubUnavailableException {
+        if (state == State.CLOSED) {
+            return;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() < openUntilMillis) {
+                    throw unavailable();
+                }
+                state = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialInFlight) {
+                    throw unavailable();
+                }
+                trialInFlight = true;
+            }
+        }
+    }
+
+    /**
+     * Github answered the call, with any status code below 500.
+     */
+    void onResponse(long durationMillis) {
+        if (slowCallMillis > 0 && durationMillis > slowCallMillis) {
+            LOGGER.debug("Github took {} ms to answer", durationMillis);
+            onFailure();
+            return;
+        }
+        if (state == State.CLOSED && consecutiveFailures == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (state != State.CLOSED) {
+                LOGGER.info("Github is available again");
+            }
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Github could not be reached, failed with a 5xx status code or answered too slowly.
+     */
+    synchronized void onFailure() {
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (failureThreshold > 0 && (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)) {
+            if (state != State.OPEN) {
+                LOGGER.warn("Github failed {} times in a row, not calling it for {} ms", consecutiveFailures, openMillis);
+            }
+            state = State.OPEN;
+            openUntilMillis = System.currentTimeMillis() + openMillis;
+        }
+    }
+
+    /**
+     * The call was cancelled before Github answered, which says nothing about Github.
+     */
+    synchronized void release() {
+        trialInFlight = false;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    private GithubUnavailableException unavailable() {
+        return new GithubUnavailableException("Github is unavailable, not calling it again before " + Instant.ofEpochMilli(openUntilMillis) + ".");
+    }
+}
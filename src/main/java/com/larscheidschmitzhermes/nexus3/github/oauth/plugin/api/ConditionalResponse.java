@@ -0,0 +1,37 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+/**
+ * The parsed result of a Github API call together with the validators needed to revalidate it through a conditional request.
+ */
+class ConditionalResponse<T> {
+    private final String etag;
+    private final String lastModified;
+    private final String link;
+    private final T value;
+
+    ConditionalResponse(String etag, String lastModified, String link, T value) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.link = link;
+        this.value = value;
+    }
+
+    String getEtag() {
+        return etag;
+    }
+
+    String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the Link header of the response, Github does not necessarily repeat it on a 304 Not Modified
+     */
+    String getLink() {
+        return link;
+    }
+
+    T getValue() {
+        return value;
+    }
+}
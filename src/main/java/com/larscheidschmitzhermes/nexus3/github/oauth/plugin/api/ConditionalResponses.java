@@ -0,0 +1,45 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubPrincipal;
+
+/**
+ * The {@link ConditionalResponse}s of all Github API calls that made up a principal, by uri.
+ */
+class ConditionalResponses {
+    private final Map<String, ConditionalResponse<?>> responsesByUri = new ConcurrentHashMap<>();
+
+    private volatile GithubPrincipal principal;
+
+    private volatile long loadedAtMillis;
+
+    @SuppressWarnings("unchecked")
+    <T> ConditionalResponse<T> get(String uri) {
+        return (ConditionalResponse<T>) responsesByUri.get(uri);
+    }
+
+    void put(String uri, ConditionalResponse<?> response) {
+        responsesByUri.put(uri, response);
+    }
+
+    /**
+     * @return the principal that was made up from these responses, {@code null} while it is still being loaded
+     */
+    GithubPrincipal getPrincipal() {
+        return principal;
+    }
+
+    /**
+     * @return the time the principal was loaded from Github at
+     */
+    long getLoadedAtMillis() {
+        return loadedAtMillis;
+    }
+
+    void setPrincipal(GithubPrincipal principal, long loadedAtMillis) {
+        this.loadedAtMillis = loadedAtMillis;
+        this.principal = principal;
+    }
+}
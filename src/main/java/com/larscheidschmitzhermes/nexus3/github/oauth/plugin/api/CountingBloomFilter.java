@@ -0,0 +1,72 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A counting Bloom filter that tells how often an element was added at most, in a fixed amount of memory no matter how many elements are
+ * added. Elements are given as two independent 64 bit hashes, from which the counters of an element are derived by double hashing.
+ * Counters saturate instead of overflowing and are halved by {@link #decay()}, so elements that are no longer added fade out. The share of
+ * counters in use is tracked, since the filter mistakes ever more elements for added ones as it fills up.
+ */
+class CountingBloomFilter {
+    private static final int MAX_COUNT = 15;
+
+    private final AtomicIntegerArray counters;
+
+    private final int hashes;
+
+    private final AtomicInteger used = new AtomicInteger();
+
+    CountingBloomFilter(int size, int hashes) {
+        this.counters = new AtomicIntegerArray(size);
+        this.hashes = hashes;
+    }
+
+    void add(long hash1, long hash2) {
+        for (int i = 0; i < hashes; i++) {
+            int index = index(hash1, hash2, i);
+            int count;
+            do {
+                count = counters.get(index);
+            } while (count < MAX_COUNT && !counters.compareAndSet(index, count, count + 1));
+            if (count == 0) {
+                used.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return how often the element was added at most, the count of an element that was never added may be higher than zero
+     */
+    int count(long hash1, long hash2) {
+        int min = MAX_COUNT;
+        for (int i = 0; i < hashes && min > 0; i++) {
+            min = Math.min(min, counters.get(index(hash1, hash2, i)));
+        }
+        return min;
+    }
+
+    void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            int count;
+            do {
+                count = counters.get(i);
+            } while (count > 0 && !counters.compareAndSet(i, count, count >> 1));
+            if (count == 1) {
+                used.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the share of counters that are not zero, between 0 and 1
+     */
+    double fill() {
+        return (double) used.get() / counters.length();
+    }
+
+    private int index(long hash1, long hash2, int i) {
+        return (int) Long.remainderUnsigned(hash1 + i * hash2, counters.length());
+    }
+}
@@ -0,0 +1,75 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * A {@link PrincipalStore} in a directory that several Nexus instances share, e.g. on NFS. Every value is a file of its own, which is
+ * written to a temporary file first and then moved in place atomically, so that readers never see a partially written value. The files are
+ * spread over 256 subdirectories by the first two characters of their key.
+ */
+public class DirectoryPrincipalStore implements PrincipalStore {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    public DirectoryPrincipalStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(file(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws IOException {
+        Path file = file(key);
+        Files.createDirectories(file.getParent());
+        // Unique per writer, concurrent writers of the same key must not write to the same temporary file
+        Path tempFile = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        try {
+            Files.write(tempFile, value);
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public void remove(String key) throws IOException {
+        Files.deleteIfExists(file(key));
+    }
+
+    @Override
+    public void evictStoredBefore(long storedBeforeMillis) throws IOException {
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(shard)) {
+                    for (Path file : files) {
+                        try {
+                            if (Files.getLastModifiedTime(file).toMillis() < storedBeforeMillis) {
+                                Files.deleteIfExists(file);
+                            }
+                        } catch (NoSuchFileException e) {
+                            // Removed by another instance in the meantime
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+}
@@ -0,0 +1,101 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubRejectedException;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Remembers the credentials Github rejected, so that retries with a revoked token or sprayed tokens are rejected again without calling
+ * Github. Recent rejections are kept exactly in a small cache. Beyond that, an optional counting Bloom filter remembers how often credentials
+ * were rejected, and credentials that were rejected repeatedly are rejected until the filter decays, even if they dropped out of the cache.
+ * Once the filter is so full that it would mistake valid credentials for rejected ones, e.g. because of a flood of bogus tokens, it is
+ * bypassed until it has decayed.
+ */
+class FailedAuthentications {
+    private static final int FILTER_HASHES = 4;
+
+    // With 4 hashes, at most one in 256 credentials that were never rejected hits the filter as long as no more counters are in use
+    private static final double FILTER_MAX_FILL = 0.25;
+
+    private final GithubApiMetrics metrics;
+
+    // Null if disabled
+    private final Cache<PrincipalCacheKey, String> rejections;
+
+    // Null if disabled
+    private final CountingBloomFilter filter;
+
+    private final int filterThreshold;
+
+    private final long filterDecayMillis;
+
+    private final AtomicLong nextDecayMillis;
+
+    FailedAuthentications(GithubApiMetrics metrics, Duration ttl, long maxSize, int filterSize, int filterThreshold, Duration filterDecay) {
+        this.metrics = metrics;
+        this.rejections = ttl.isZero() || maxSize <= 0 ? null : CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(maxSize)
+                .build();
+        this.filter = filterSize <= 0 ? null : new CountingBloomFilter(filterSize, FILTER_HASHES);
+        this.filterThreshold = Math.max(1, filterThreshold);
+        this.filterDecayMillis = filterDecay.toMillis();
+        this.nextDecayMillis = new AtomicLong(System.currentTimeMillis() + filterDecayMillis);
+        metrics.replaceGauge(name(GithubApiClient.class, "rejection-filter", "fill"), () -> filter == null ? 0.0 : filter.fill());
+    }
+
+    /**
+     * @return the rejection to fail with if the credentials were rejected before, otherwise {@code null}
+     */
+    GithubRejectedException rejectedBefore(PrincipalCacheKey cacheKey) {
+        if (rejections != null) {
+            String rejection = rejections.getIfPresent(cacheKey);
+            if (rejection != null) {
+                metrics.rejectionCacheHit();
+                return new GithubRejectedException(rejection);
+            }
+        }
+        if (filter != null) {
+            decayIfDue();
+            if (filter.fill() <= FILTER_MAX_FILL && filter.count(hash1(cacheKey), hash2(cacheKey)) >= filterThreshold) {
+                metrics.rejectionFilterHit();
+                return new GithubRejectedException("Authentication failed.");
+            }
+        }
+        return null;
+    }
+
+    void rejected(PrincipalCacheKey cacheKey, GithubRejectedException rejection) {
+        if (rejections != null) {
+            rejections.put(cacheKey, rejection.getMessage());
+        }
+        if (filter != null) {
+            filter.add(hash1(cacheKey), hash2(cacheKey));
+        }
+    }
+
+    private void decayIfDue() {
+        long now = System.currentTimeMillis();
+        long next = nextDecayMillis.get();
+        if (filterDecayMillis > 0 && now >= next && nextDecayMillis.compareAndSet(next, now + filterDecayMillis)) {
+            filter.decay();
+        }
+    }
+
+    // The token hash is a HMAC, so its bytes are uniformly distributed already
+    private static long hash1(PrincipalCacheKey cacheKey) {
+        return ByteBuffer.wrap(cacheKey.getTokenHash()).getLong(0) ^ cacheKey.getLogin().hashCode();
+    }
+
+    private static long hash2(PrincipalCacheKey cacheKey) {
+        // Never zero, which would derive the same counter for all hashes of an element
+        return ByteBuffer.wrap(cacheKey.getTokenHash()).getLong(Long.BYTES) | 1;
+    }
+}
@@ -1,184 +1,1449 @@
 package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
 
-import com.fasterxml.jackson.databind.JavaType;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.cache.AbstractCache;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubAuthenticationException;
 import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubPrincipal;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubRateLimitException;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubRejectedException;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubUnavailableException;
 import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.GithubOauthConfiguration;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.RoleMapping;
 
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.GithubOauthConfiguration.anyChanged;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+@ManagedLifecycle(phase = SERVICES)
 @Singleton
 @Named("GithubApiClient")
-public class GithubApiClient {
+public class GithubApiClient extends LifecycleSupport {
     private static final Logger LOGGER = LoggerFactory.getLogger(GithubApiClient.class);
 
+    private static final int CONDITIONAL_RESPONSE_CACHE_SIZE = 10000;
+
+    private static final int REQUEST_QUEUE_SIZE = 1000;
+
+    private static final int REFRESH_QUEUE_SIZE = 1000;
+
+    // Pages of /user/teams fetched at the same time, the last page Github reports is not trusted any further
+    private static final int MAX_PREFETCHED_TEAM_PAGES = 10;
+
+    private static final int MAX_ERROR_MESSAGE_BYTES = 1024;
+
     private HttpClient client;
+    // Only set if the client was built from the configuration, the timeouts and the pool are then adjusted when the configuration changes
+    private volatile RequestConfig requestConfig;
+    private PoolingHttpClientConnectionManager connectionManager;
     private GithubOauthConfiguration configuration;
+    private final Consumer<Set<String>> configurationListener = this::onConfigurationChanged;
+    private MetricRegistry metricRegistry;
+    private GithubApiMetrics metrics;
+    private RateLimitTracker rateLimits;
+    private CircuitBreaker circuitBreaker;
     private ObjectMapper mapper;
+    // Built once, readers are immutable and thread-safe unlike their construction
+    private ObjectReader userReader;
+    private ObjectReader orgsReader;
+    private ObjectReader treeReader;
+    private PrincipalCacheKeys cacheKeys;
+    private volatile FailedAuthentications failedAuthentications;
+    // Only set if an encryption key is configured
+    private PrincipalCodec principalCodec;
+    private Path snapshotPath;
+    private volatile PrincipalSnapshot snapshot;
+    private ScheduledExecutorService snapshotWriter;
+    // Held while the snapshot is written and while the scope changes, so a snapshot never has principals of one scope under another
+    private final Object snapshotLock = new Object();
+    // Only set if a store is configured, which also requires an encryption key
+    private volatile PrincipalStore principalStore;
+    // Goes into the keys of the store, so that principals loaded with another configuration are never restored
+    private volatile String principalScope;
+    private ScheduledExecutorService storeEvictor;
+    private final RoleInterner roleInterner = new RoleInterner();
+    private GithubTeamsParser teamsParser;
+    private GithubGraphql graphql;
     // Cache token lookups to reduce the load on Github's User API to prevent hitting the rate limit.
-    private Cache<String, GithubPrincipal> tokenToPrincipalCache;
+    private volatile Cache<PrincipalCacheKey, CachedPrincipal> tokenToPrincipalCache;
+    // Outlives the principal cache so expired principals can be revalidated through conditional requests, which don't count against the
+    // rate limit.
+    private volatile Cache<PrincipalCacheKey, ConditionalResponses> conditionalResponseCache;
+    // Runs the independent Github calls of a single authz concurrently, on virtual threads if the JDK has them.
+    private ListeningExecutorService requestExecutor;
+    // Only set if the calls run on platform threads, the pool is resized when the configuration changes
+    private ThreadPoolExecutor requestThreads;
+    // Refreshes principals that are due for a refresh in the background, while the cached principal is still served.
+    private ThreadPoolExecutor refreshExecutor;
+    private final Set<PrincipalCacheKey> refreshesInFlight = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<PrincipalCacheKey, CompletableFuture<CachedPrincipal>> loadsInFlight = new ConcurrentHashMap<>();
+    // The principal cache never loads anything itself, the loads in flight are recorded here instead
+    private final AbstractCache.SimpleStatsCounter loadStats = new AbstractCache.SimpleStatsCounter();
 
     public GithubApiClient() {
+        metricRegistry = new MetricRegistry();
         init();
     }
 
     public GithubApiClient(HttpClient client, GithubOauthConfiguration configuration) {
+        this(client, configuration, new MetricRegistry());
+    }
+
+    public GithubApiClient(HttpClient client, GithubOauthConfiguration configuration, MetricRegistry metricRegistry) {
         this.client = client;
         this.configuration = configuration;
-        mapper = new ObjectMapper();
+        this.metricRegistry = metricRegistry;
+        initJson();
+        initResilience();
         initPrincipalCache();
+        initRequestExecutor();
+        configuration.addListener(configurationListener);
     }
 
-    @Inject
     public GithubApiClient(GithubOauthConfiguration configuration) {
+        this(configuration, new MetricRegistry());
+    }
+
+    @Inject
+    public GithubApiClient(GithubOauthConfiguration configuration, MetricRegistry metricRegistry) {
         this.configuration = configuration;
+        this.metricRegistry = metricRegistry;
         init();
     }
 
     public void init() {
-        RequestConfig config = RequestConfig.custom()
+        initResilience();
+        requestConfig = newRequestConfig();
+        // Keep warm (TLS) connections to the Github API around, so that concurrent logins don't queue for a connection or handshake again
+        PoolingHttpClientConnectionManager connectionManager =
+                new TimedConnectionManager(configuration.getRequestPoolTimeToLive(), TimeUnit.MILLISECONDS, metrics.poolLeases());
+        metrics.replaceGauge(name(GithubApiClient.class, "pool", "leased"), () -> connectionManager.getTotalStats().getLeased());
+        metrics.replaceGauge(name(GithubApiClient.class, "pool", "pending"), () -> connectionManager.getTotalStats().getPending());
+        configurePool(connectionManager);
+        this.connectionManager = connectionManager;
+        HttpClientBuilder builder = HttpClientBuilder
+                .create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig);
+        if (configuration.getRequestPoolMaxIdleTime() > 0) {
+            // Starts a background thread that closes expired and idle connections, it is stopped when the client is closed
+            builder.evictExpiredConnections()
+                    .evictIdleConnections(configuration.getRequestPoolMaxIdleTime(), TimeUnit.MILLISECONDS);
+        }
+        client = builder.build();
+        initJson();
+        initPrincipalCache();
+        initRequestExecutor();
+        configuration.addListener(configurationListener);
+    }
+
+    private void initJson() {
+        mapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        String module = configuration.getGithubJsonModule();
+        if (!module.equalsIgnoreCase("none")) {
+            try {
+                mapper.registerModule(JsonModules.load(module));
+                LOGGER.info("Parsing Github responses with the Jackson module {}", module);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                LOGGER.warn("Parsing Github responses without a Jackson module: {}", e.getMessage());
+            }
+        }
+        userReader = mapper.readerFor(GithubUser.class);
+        orgsReader = mapper.readerFor(GithubOrg[].class);
+        treeReader = mapper.reader();
+        teamsParser = new GithubTeamsParser(mapper.getFactory());
+        graphql = new GithubGraphql(mapper);
+    }
+
+    private RequestConfig newRequestConfig() {
+        return RequestConfig.custom()
                 .setConnectTimeout(configuration.getRequestConnectTimeout())
                 .setConnectionRequestTimeout(configuration.getRequestConnectionRequestTimeout())
                 .setSocketTimeout(configuration.getRequestSocketTimeout())
                 .build();
-        client = HttpClientBuilder
-                .create()
-                .setDefaultRequestConfig(config)
-                .build();
-        mapper = new ObjectMapper();
-        initPrincipalCache();
+    }
+
+    private void configurePool(PoolingHttpClientConnectionManager connectionManager) {
+        connectionManager.setMaxTotal(configuration.getRequestPoolMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(configuration.getRequestPoolMaxPerRoute());
+        connectionManager.setValidateAfterInactivity(configuration.getRequestPoolValidateAfterInactivity());
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        startSnapshots();
+        startStoreEviction();
+    }
+
+    private void startSnapshots() {
+        if (configuration.getPrincipalCacheSnapshotPath().isEmpty()) {
+            return;
+        }
+        if (principalCodec == null) {
+            LOGGER.warn("Not snapshotting the principal cache, this requires github.principal.cache.encryption.key to be set");
+            return;
+        }
+        snapshotPath = Paths.get(configuration.getPrincipalCacheSnapshotPath());
+        if (Files.exists(snapshotPath)) {
+            try {
+                long ttl = configuration.getPrincipalCacheTtl().toMillis();
+                snapshot = PrincipalSnapshot.open(snapshotPath, principalScope, principalCodec, System.currentTimeMillis() - ttl);
+                if (snapshot == null) {
+                    LOGGER.info("Not restoring cached principals from {}, github.org, github.roles.*, github.api.url or github.graphql.url "
+                            + "changed since it was written", snapshotPath);
+                } else {
+                    LOGGER.info("Restoring {} cached principals from {} on demand", snapshot.size(), snapshotPath);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to read principal cache snapshot {}, starting with an empty cache", snapshotPath, e);
+            }
+        }
+        long interval = configuration.getPrincipalCacheSnapshotInterval().toMillis();
+        snapshotWriter = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("github-principal-snapshot").setDaemon(true).build());
+        snapshotWriter.scheduleWithFixedDelay(this::writeSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void startStoreEviction() {
+        if (principalStore == null) {
+            return;
+        }
+        long ttl = configuration.getPrincipalCacheTtl().toMillis();
+        storeEvictor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("github-principal-store-evictor").setDaemon(true).build());
+        storeEvictor.scheduleWithFixedDelay(() -> {
+            try {
+                principalStore.evictStoredBefore(System.currentTimeMillis() - ttl);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to evict expired principals from the principal store", e);
+            }
+        }, ttl, ttl, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        configuration.removeListener(configurationListener);
+        LOGGER.info("Principal cache statistics: {}", getPrincipalCacheStats());
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdownNow();
+            writeSnapshot();
+        }
+        if (storeEvictor != null) {
+            storeEvictor.shutdownNow();
+        }
+        requestExecutor.shutdownNow();
+        refreshExecutor.shutdownNow();
+        if (client instanceof Closeable) {
+            // Closes the pooled connections and stops the idle connection evictor
+            ((Closeable) client).close();
+        }
+    }
+
+    private void writeSnapshot() {
+        try {
+            synchronized (snapshotLock) {
+                PrincipalSnapshot.write(snapshotPath, principalScope, tokenToPrincipalCache.asMap(), snapshot, principalCodec);
+            }
+            LOGGER.debug("Wrote principal cache snapshot {}", snapshotPath);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write principal cache snapshot {}", snapshotPath, e);
+        }
+    }
+
+    private void initResilience() {
+        rateLimits = new RateLimitTracker(configuration.getRateLimitReserve());
+        circuitBreaker = new CircuitBreaker(configuration.getCircuitBreakerFailureThreshold(), configuration.getCircuitBreakerSlowCallThreshold(),
+                configuration.getCircuitBreakerOpenDuration());
+        metrics = new GithubApiMetrics(metricRegistry, rateLimits, circuitBreaker);
+        failedAuthentications = newFailedAuthentications();
+    }
+
+    private FailedAuthentications newFailedAuthentications() {
+        return new FailedAuthentications(metrics, configuration.getRejectionCacheTtl(), configuration.getRejectionCacheMaxSize(),
+                configuration.getRejectionFilterSize(), configuration.getRejectionFilterThreshold(), configuration.getRejectionFilterDecay());
     }
 
     private void initPrincipalCache() {
-        tokenToPrincipalCache = CacheBuilder.newBuilder()
+        String encryptionKey = configuration.getPrincipalCacheEncryptionKey();
+        if (encryptionKey.isEmpty()) {
+            cacheKeys = new PrincipalCacheKeys();
+        } else {
+            PrincipalCacheSecret secret = PrincipalCacheSecret.fromBase64(encryptionKey);
+            cacheKeys = new PrincipalCacheKeys(secret.getHashingKey());
+            principalCodec = new PrincipalCodec(secret.getEncryptionKey());
+        }
+        principalStore = createPrincipalStore();
+        principalScope = principalScope();
+        tokenToPrincipalCache = newPrincipalCache();
+        conditionalResponseCache = newConditionalResponseCache();
+        metrics.replaceGauge(name(GithubApiClient.class, "principal-cache", "size"), () -> tokenToPrincipalCache.size());
+    }
+
+    private Cache<PrincipalCacheKey, CachedPrincipal> newPrincipalCache() {
+        return CacheBuilder.newBuilder()
                 .expireAfterWrite(configuration.getPrincipalCacheTtl().toMillis(), TimeUnit.MILLISECONDS)
+                .maximumWeight(configuration.getPrincipalCacheMaxWeight())
+                .weigher(new CachedPrincipalWeigher())
+                .removalListener(this::onPrincipalRemoved)
+                .recordStats()
                 .build();
     }
 
+    private Cache<PrincipalCacheKey, ConditionalResponses> newConditionalResponseCache() {
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(configuration.getConditionalResponseCacheTtl().toMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(CONDITIONAL_RESPONSE_CACHE_SIZE)
+                .build();
+    }
+
+    private PrincipalStore createPrincipalStore() {
+        String store = configuration.getPrincipalCacheStore();
+        if (store.equalsIgnoreCase("none")) {
+            return null;
+        }
+        if (principalCodec == null) {
+            LOGGER.warn("Not sharing principals through the {} principal store, this requires github.principal.cache.encryption.key to be set",
+                    store);
+            return null;
+        }
+        if (store.equalsIgnoreCase("memory")) {
+            return InMemoryPrincipalStore.SHARED;
+        }
+        if (store.equalsIgnoreCase("directory")) {
+            String path = configuration.getPrincipalCacheStorePath();
+            if (path.isEmpty()) {
+                LOGGER.warn("Not sharing principals through the directory principal store, github.principal.cache.store.path is not set");
+                return null;
+            }
+            try {
+                return new DirectoryPrincipalStore(Paths.get(path));
+            } catch (IOException e) {
+                LOGGER.warn("Not sharing principals through the directory principal store, failed to create {}", path, e);
+                return null;
+            }
+        }
+        LOGGER.warn("Not sharing principals, unknown principal store: {}", store);
+        return null;
+    }
+
+    /**
+     * @return the configuration principals are loaded with: principals of another scope were loaded from another Github, checked against
+     * other organizations or got other roles
+     */
+    private String principalScope() {
+        return String.join("\n", configuration.getGithubApiUrl(), configuration.getGithubGraphqlUri(),
+                String.join(",", new TreeSet<>(configuration.getGithubAllowedOrgs())), configuration.getRoleMapping().getDefinition());
+    }
+
+    private void onPrincipalRemoved(RemovalNotification<PrincipalCacheKey, CachedPrincipal> removal) {
+        CachedPrincipal removed = removal.getValue();
+        if (removed == null) {
+            return;
+        }
+        if (removal.getCause() == RemovalCause.REPLACED) {
+            // The last known principal may be cached again as it is, e.g. while Github is unavailable
+            CachedPrincipal current = tokenToPrincipalCache.asMap().get(removal.getKey());
+            if (current != null && current.getPrincipal() == removed.getPrincipal()) {
+                return;
+            }
+        }
+        // Lets the caches of the realm, which hold on to the principal as well, know that it has been refreshed or evicted
+        removed.getPrincipal().invalidate();
+    }
+
+    private void initRequestExecutor() {
+        ThreadFactory refreshThreadFactory;
+        if (useVirtualThreads()) {
+            // Every call gets a thread of its own, the connection pool limits how many of them talk to Github at the same time
+            requestExecutor = MoreExecutors.listeningDecorator(VirtualThreads.newThreadPerTaskExecutor("github-api-"));
+            refreshThreadFactory = VirtualThreads.factory("github-principal-refresh-");
+        } else {
+            int threads = configuration.getRequestExecutorThreads();
+            // Calls that don't fit into the queue run on the calling thread, see execute(). The only call that waits for others on a request
+            // thread fetches the pages that are still queued itself, so waits can never deadlock.
+            requestThreads = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(REQUEST_QUEUE_SIZE),
+                    new ThreadFactoryBuilder().setNameFormat("github-api-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            requestThreads.allowCoreThreadTimeOut(true);
+            requestExecutor = MoreExecutors.listeningDecorator(requestThreads);
+            refreshThreadFactory = new ThreadFactoryBuilder().setNameFormat("github-principal-refresh-%d").setDaemon(true).build();
+        }
+
+        int refreshThreads = configuration.getPrincipalCacheRefreshThreads();
+        // Refreshes that don't fit into the queue are dropped, the principal is then loaded again once it has expired
+        refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(REFRESH_QUEUE_SIZE),
+                refreshThreadFactory, new ThreadPoolExecutor.AbortPolicy());
+        refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private boolean useVirtualThreads() {
+        String mode = configuration.getRequestExecutorVirtualThreads();
+        if ("false".equalsIgnoreCase(mode)) {
+            return false;
+        }
+        if (VirtualThreads.isAvailable()) {
+            LOGGER.info("Calling Github on virtual threads");
+            return true;
+        }
+        if ("true".equalsIgnoreCase(mode)) {
+            LOGGER.warn("Virtual threads are not available on this JDK, calling Github on platform threads");
+        }
+        return false;
+    }
+
+    /**
+     * Applies a changed configuration to everything that was built from it. Authentications that are under way finish with what they
+     * started with, later ones see the new configuration.
+     */
+    private void onConfigurationChanged(Set<String> changed) {
+        if (anyChanged(changed, "github.principal.cache.encryption.key", "github.principal.cache.snapshot.", "github.principal.cache.store",
+                "github.principal.cache.store.path", "request.executor.virtual-threads", "request.pool.time-to-live", "request.pool.max-idle-time", "github.json.module")) {
+            LOGGER.warn("Some of the changed github oauth properties only take effect after a restart: {}", changed);
+        }
+        if (anyChanged(changed, "request.timeout.connect", "request.timeout.connection-request", "request.timeout.socket")
+                && requestConfig != null) {
+            requestConfig = newRequestConfig();
+        }
+        if (anyChanged(changed, "request.pool.") && connectionManager != null) {
+            configurePool(connectionManager);
+        }
+        if (anyChanged(changed, "request.executor.threads") && requestThreads != null) {
+            resize(requestThreads, configuration.getRequestExecutorThreads());
+        }
+        if (anyChanged(changed, "github.principal.cache.refresh-threads")) {
+            resize(refreshExecutor, configuration.getPrincipalCacheRefreshThreads());
+        }
+        if (anyChanged(changed, "github.rate-limit.reserve")) {
+            rateLimits.setReserve(configuration.getRateLimitReserve());
+        }
+        if (anyChanged(changed, "request.circuit-breaker.")) {
+            circuitBreaker.configure(configuration.getCircuitBreakerFailureThreshold(), configuration.getCircuitBreakerSlowCallThreshold(),
+                    configuration.getCircuitBreakerOpenDuration());
+        }
+        if (anyChanged(changed, "github.rejection.", "github.org", "github.api.url", "github.graphql.url")) {
+            // Credentials rejected by another Github, or for not being in another organization, may be accepted now
+            failedAuthentications = newFailedAuthentications();
+        }
+        if (anyChanged(changed, "github.org", "github.api.url", "github.graphql.url", "github.roles.")) {
+            // The cached principals were loaded from another Github, checked against other organizations or got other roles. The ones in
+            // the store are left to expire, they are stored under the previous scope.
+            synchronized (snapshotLock) {
+                principalScope = principalScope();
+                snapshot = null;
+                tokenToPrincipalCache.invalidateAll();
+                conditionalResponseCache.invalidateAll();
+            }
+        } else if (anyChanged(changed, "github.principal.cache.ttl", "github.principal.cache.max-weight",
+                "github.principal.cache.revalidation.ttl")) {
+            rebuildPrincipalCache();
+        }
+    }
+
+    /**
+     * Replaces the principal cache and the conditional response cache with ones built from the current configuration and carries their
+     * entries over, as far as they fit.
+     */
+    private void rebuildPrincipalCache() {
+        Cache<PrincipalCacheKey, CachedPrincipal> previousPrincipals = tokenToPrincipalCache;
+        Cache<PrincipalCacheKey, ConditionalResponses> previousResponses = conditionalResponseCache;
+        Cache<PrincipalCacheKey, CachedPrincipal> principals = newPrincipalCache();
+        Cache<PrincipalCacheKey, ConditionalResponses> responses = newConditionalResponseCache();
+        responses.putAll(previousResponses.asMap());
+        conditionalResponseCache = responses;
+        long ttl = configuration.getPrincipalCacheTtl().toMillis();
+        long now = System.currentTimeMillis();
+        previousPrincipals.asMap().forEach((cacheKey, cached) -> {
+            if (!cached.isOlderThan(ttl, now)) {
+                principals.asMap().putIfAbsent(cacheKey, cached);
+            }
+        });
+        // Loads that finish from now on go to the new cache
+        tokenToPrincipalCache = principals;
+        previousPrincipals.asMap().forEach((cacheKey, cached) -> {
+            CachedPrincipal carriedOver = principals.getIfPresent(cacheKey);
+            if (carriedOver == null || carriedOver.getPrincipal() != cached.getPrincipal()) {
+                cached.getPrincipal().invalidate();
+            }
+        });
+        LOGGER.info("Rebuilt the principal cache, {} of {} principals were carried over", principals.size(), previousPrincipals.size());
+    }
+
+    private static void resize(ThreadPoolExecutor executor, int threads) {
+        // The core size must never exceed the maximum size, not even for a moment
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * @return the hit, miss, load and eviction statistics of the principal cache, the hits, misses and evictions since the cache was last
+     * rebuilt, the loads since the start
+     */
+    public CacheStats getPrincipalCacheStats() {
+        CacheStats cache = tokenToPrincipalCache.stats();
+        CacheStats loads = loadStats.snapshot();
+        return new CacheStats(cache.hitCount(), cache.missCount(), loads.loadSuccessCount(), loads.loadExceptionCount(), loads.totalLoadTime(),
+                cache.evictionCount());
+    }
+
+    /**
+     * @return the hash of the token the principal cache keys its principals by, HMAC-SHA256 under a secret of this instance, or derived from
+     * <code>github.principal.cache.encryption.key</code> if it is set
+     */
+    public byte[] hashToken(char[] token) {
+        return cacheKeys.hashToken(token);
+    }
+
+    public long getPrincipalCacheSize() {
+        return tokenToPrincipalCache.size();
+    }
+
     public GithubPrincipal authz(String login, char[] token) throws GithubAuthenticationException {
+        CompletableFuture<GithubPrincipal> principal = authzAsync(login, token);
+        long timeout = configuration.getRequestAuthzTimeout();
+        try {
+            return timeout > 0 ? principal.get(timeout, TimeUnit.MILLISECONDS) : principal.get();
+        } catch (ExecutionException e) {
+            throw asAuthenticationException(e);
+        } catch (TimeoutException e) {
+            // The load goes on for other callers waiting for the same principal
+            throw new GithubUnavailableException("Github did not answer within " + timeout + " ms.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GithubAuthenticationException("Authentication cancelled.");
+        }
+    }
+
+    /**
+     * Looks up the principal of the login and token without blocking the calling thread. If the request executor has no room left for the
+     * Github calls, they are made on the calling thread instead.
+     *
+     * @return the principal, or a future failed with a {@link GithubAuthenticationException}
+     */
+    public CompletableFuture<GithubPrincipal> authzAsync(String login, char[] token) {
         // Combine the login and the token as the cache key since they are both used to generate the principal. If either changes we should obtain a new
-        // principal.
-        String cacheKey = login + "|" + new String(token);
-        GithubPrincipal cached = tokenToPrincipalCache.getIfPresent(cacheKey);
-        if (cached != null) {
-            LOGGER.debug("Using cached principal for login: {}", login);
-            return cached;
+        // principal. The token only goes into the key as a keyed hash.
+        PrincipalCacheKey cacheKey = cacheKeys.of(login, token);
+        CachedPrincipal cached = tokenToPrincipalCache.getIfPresent(cacheKey);
+        if (cached != null && cached.isOlderThan(configuration.getPrincipalCacheTtl().toMillis(), System.currentTimeMillis())) {
+            // Principals expire relative to the time they were loaded at, even if they were restored from a snapshot or carried over into a
+            // cache with a longer ttl
+            tokenToPrincipalCache.asMap().remove(cacheKey, cached);
+            cached = null;
+        }
+        if (cached == null) {
+            metrics.cacheMiss();
+            GithubRejectedException rejected = failedAuthentications.rejectedBefore(cacheKey);
+            if (rejected != null) {
+                CompletableFuture<GithubPrincipal> failed = new CompletableFuture<>();
+                failed.completeExceptionally(rejected);
+                return failed;
+            }
+            return getOrStartLoad(login, token, cacheKey).thenApply(CachedPrincipal::getPrincipal);
+        }
+        metrics.cacheHit();
+        if (isRefreshDue(cached)) {
+            refreshInBackground(login, token, cacheKey);
+        }
+        return CompletableFuture.completedFuture(cached.getPrincipal());
+    }
+
+    private CompletableFuture<CachedPrincipal> getOrStartLoad(String login, char[] token, PrincipalCacheKey cacheKey) {
+        // Concurrent misses for the same key share a single load: the first caller starts it, all others receive the same principal or
+        // the same failure.
+        CompletableFuture<CachedPrincipal> load = new CompletableFuture<>();
+        CompletableFuture<CachedPrincipal> loadInFlight = loadsInFlight.putIfAbsent(cacheKey, load);
+        if (loadInFlight != null) {
+            Timer.Context wait = metrics.loadWaits().time();
+            loadInFlight.whenComplete((loaded, failure) -> wait.stop());
+            return loadInFlight;
+        }
+        // A load may have finished between the cache lookup and now
+        CachedPrincipal justLoaded = tokenToPrincipalCache.asMap().get(cacheKey);
+        if (justLoaded != null) {
+            loadsInFlight.remove(cacheKey, load);
+            load.complete(justLoaded);
+            return load;
+        }
+        CachedPrincipal restored = restoreFromSnapshot(cacheKey);
+        Timer.Context loading = metrics.cacheLoads().time();
+        CompletableFuture<CachedPrincipal> source;
+        if (restored != null) {
+            source = CompletableFuture.completedFuture(restored);
+        } else if (principalStore != null) {
+            source = loadThroughStore(login, token, cacheKey);
         } else {
-            GithubPrincipal principal = doAuthz(login, token);
-            tokenToPrincipalCache.put(cacheKey, principal);
-            return principal;
+            source = loadAsync(login, token, cacheKey);
         }
+        source.whenComplete((loaded, failure) -> {
+            long loadTime = loading.stop();
+            if (failure == null) {
+                loadStats.recordLoadSuccess(loadTime);
+            } else {
+                loadStats.recordLoadException(loadTime);
+            }
+            // Cache the principal before the load is removed, so that no later caller misses both
+            if (failure == null) {
+                tokenToPrincipalCache.put(cacheKey, loaded);
+            }
+            loadsInFlight.remove(cacheKey, load);
+            if (failure == null) {
+                load.complete(loaded);
+            } else {
+                load.completeExceptionally(asAuthenticationException(failure));
+            }
+        });
+        return load;
     }
 
-    private GithubPrincipal doAuthz(String loginName, char[] token) throws GithubAuthenticationException {
-        GithubUser githubUser = retrieveGithubUser(loginName, token);
-        GithubPrincipal principal = new GithubPrincipal();
+    private static GithubAuthenticationException asAuthenticationException(Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof GithubAuthenticationException) {
+            return (GithubAuthenticationException) cause;
+        }
+        return new GithubAuthenticationException(cause);
+    }
 
-        principal.setUsername(githubUser.getLogin());
-        principal.setRoles(generateRolesFromGithubOrgMemberships(token, loginName));
+    private CachedPrincipal restoreFromSnapshot(PrincipalCacheKey cacheKey) {
+        PrincipalSnapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null) {
+            return null;
+        }
+        try {
+            CachedPrincipal restored = currentSnapshot.take(cacheKey);
+            if (restored == null || restored.isOlderThan(configuration.getPrincipalCacheTtl().toMillis(), System.currentTimeMillis())) {
+                return null;
+            }
+            LOGGER.debug("Restored cached principal for login: {}", cacheKey.getLogin());
+            restored.getPrincipal().setRoles(roleInterner.intern(restored.getPrincipal().getRoles()));
+            return restored;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to restore cached principal for login: {}", cacheKey.getLogin(), e);
+            return null;
+        }
+    }
 
-        return principal;
+    /**
+     * Looks the principal up in the principal store on a request thread, since the store may be on a network share, and loads it from
+     * Github if the store does not have it.
+     */
+    private CompletableFuture<CachedPrincipal> loadThroughStore(String login, char[] token, PrincipalCacheKey cacheKey) {
+        // The caller may clear its token before the lookup is done
+        char[] tokenCopy = token.clone();
+        CompletableFuture<CachedPrincipal> loaded = new CompletableFuture<>();
+        try {
+            execute(() -> {
+                try {
+                    CachedPrincipal restored = restoreFromStore(cacheKey);
+                    CompletableFuture<CachedPrincipal> source =
+                            restored != null ? CompletableFuture.completedFuture(restored) : loadAsync(login, tokenCopy, cacheKey);
+                    source.whenComplete((principal, failure) -> {
+                        if (failure == null) {
+                            loaded.complete(principal);
+                        } else {
+                            loaded.completeExceptionally(failure);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    loaded.completeExceptionally(e);
+                } finally {
+                    // loadAsync took a copy of its own
+                    Arrays.fill(tokenCopy, '\0');
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Arrays.fill(tokenCopy, '\0');
+            loaded.completeExceptionally(new GithubUnavailableException("The Github client is stopped."));
+        }
+        return loaded;
+    }
+
+    private CachedPrincipal restoreFromStore(PrincipalCacheKey cacheKey) {
+        if (principalStore == null) {
+            return null;
+        }
+        try {
+            byte[] stored = principalStore.get(cacheKey.getStoreKey(principalScope));
+            CachedPrincipal restored = stored == null ? null : decodeStored(cacheKey, stored);
+            if (restored == null || restored.isOlderThan(configuration.getPrincipalCacheTtl().toMillis(), System.currentTimeMillis())) {
+                metrics.storeMiss();
+                return null;
+            }
+            metrics.storeHit();
+            LOGGER.debug("Restored cached principal from the principal store for login: {}", cacheKey.getLogin());
+            restored.getPrincipal().setRoles(roleInterner.intern(restored.getPrincipal().getRoles()));
+            return restored;
+        } catch (IOException e) {
+            metrics.storeMiss();
+            LOGGER.warn("Failed to restore cached principal from the principal store for login: {}", cacheKey.getLogin(), e);
+            return null;
+        }
+    }
+
+    private void publishToStore(PrincipalCacheKey cacheKey, CachedPrincipal cached) {
+        if (principalStore == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeLong(cached.getLoadedAtMillis());
+                out.write(principalCodec.encrypt(cacheKey, cached));
+            }
+            principalStore.put(cacheKey.getStoreKey(principalScope), bytes.toByteArray());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to publish cached principal to the principal store for login: {}", cacheKey.getLogin(), e);
+        }
     }
 
+    /**
+     * Removes the principal from the store as well, so that neither this nor any other instance restores it from there, and forgets the
+     * last known principal, so that it is not served stale either.
+     */
+    private void invalidate(PrincipalCacheKey cacheKey) {
+        tokenToPrincipalCache.invalidate(cacheKey);
+        conditionalResponseCache.invalidate(cacheKey);
+        if (principalStore == null) {
+            return;
+        }
+        try {
+            principalStore.remove(cacheKey.getStoreKey(principalScope));
+        } catch (IOException e) {
+            LOGGER.warn("Failed to remove cached principal from the principal store for login: {}", cacheKey.getLogin(), e);
+        }
+    }
 
-    private GithubUser retrieveGithubUser(String loginName, char[] token) throws GithubAuthenticationException {
-        GithubUser githubUser = getAndSerializeObject(configuration.getGithubUserUri(), token,GithubUser.class);
+    private CachedPrincipal decodeStored(PrincipalCacheKey cacheKey, byte[] stored) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(stored));
+        long loadedAtMillis = in.readLong();
+        byte[] encrypted = new byte[stored.length - Long.BYTES];
+        in.readFully(encrypted);
+        return principalCodec.decrypt(cacheKey, loadedAtMillis, encrypted);
+    }
 
-        if (!loginName.equals(githubUser.getLogin())) {
-            throw new GithubAuthenticationException("Given username does not match Github Username!");
+    private boolean isRefreshDue(CachedPrincipal cached) {
+        long refreshAfter = configuration.getPrincipalCacheRefreshAfter().toMillis();
+        return refreshAfter > 0 && cached.isOlderThan(refreshAfter, System.currentTimeMillis());
+    }
+
+    private void refreshInBackground(String login, char[] token, PrincipalCacheKey cacheKey) {
+        if (rateLimits.isLow(cacheKey)) {
+            // Refreshes are the first to go when the rate limit budget runs low, the cached principal is served until it expires
+            LOGGER.debug("Rate limit budget is low, not refreshing cached principal for login: {}", login);
+            return;
+        }
+        if (!refreshesInFlight.add(cacheKey)) {
+            return;
+        }
+        // The caller may clear its token once it is authenticated
+        char[] tokenCopy = token.clone();
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    tokenToPrincipalCache.put(cacheKey, loadAsync(login, tokenCopy, cacheKey).get());
+                    LOGGER.debug("Refreshed cached principal for login: {}", login);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof GithubRejectedException) {
+                        // E.g. the token was revoked, don't serve the principal any longer
+                        LOGGER.debug("Github rejected the refresh of the cached principal for login: {}", login);
+                        invalidate(cacheKey);
+                        return;
+                    }
+                    // The cached principal is served until it expires, later requests will try to refresh it again
+                    LOGGER.debug("Failed to refresh cached principal for login: {}", login, e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    Arrays.fill(tokenCopy, '\0');
+                    refreshesInFlight.remove(cacheKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Too many pending refreshes, not refreshing cached principal for login: {}", login);
+            Arrays.fill(tokenCopy, '\0');
+            refreshesInFlight.remove(cacheKey);
         }
+    }
 
-        if (configuration.getGithubOrg() != null && !configuration.getGithubOrg().equals("")) {
-            checkUserInOrg(configuration.getGithubOrg(), token);
+    private CompletableFuture<CachedPrincipal> loadAsync(String login, char[] token, PrincipalCacheKey cacheKey) {
+        if (configuration.isRateLimitServeStale() && rateLimits.isLow(cacheKey)) {
+            // Save the remaining budget for logins we know nothing about yet
+            CachedPrincipal lastKnown = lastKnownPrincipal(cacheKey);
+            if (lastKnown != null) {
+                LOGGER.debug("Rate limit budget is low, serving the last known principal for login: {}", login);
+                return CompletableFuture.completedFuture(lastKnown);
+            }
         }
-        return githubUser;
+        LOGGER.debug("Loading principal for login: {}", login);
+        // The caller may clear its token before the load is done
+        char[] tokenCopy = token.clone();
+        CompletableFuture<CachedPrincipal> loaded = new CompletableFuture<>();
+        doAuthzAsync(login, tokenCopy, cacheKey).whenComplete((principal, failure) -> {
+            Arrays.fill(tokenCopy, '\0');
+            if (failure == null) {
+                loaded.complete(new CachedPrincipal(principal, System.currentTimeMillis()));
+                return;
+            }
+            GithubAuthenticationException authenticationFailure = asAuthenticationException(failure);
+            if (authenticationFailure instanceof GithubRejectedException) {
+                failedAuthentications.rejected(cacheKey, (GithubRejectedException) authenticationFailure);
+                // Another instance may have stored the principal before the token was revoked
+                invalidate(cacheKey);
+            }
+            try {
+                loaded.complete(lastKnownPrincipalOrThrow(login, cacheKey, authenticationFailure));
+            } catch (GithubAuthenticationException e) {
+                loaded.completeExceptionally(e);
+            }
+        });
+        return loaded;
     }
 
-    private void checkUserInOrg(String githubOrg, char[] token) throws GithubAuthenticationException {
-        Set<GithubOrg> orgsInToken = getAndSerializeCollection(configuration.getGithubUserOrgsUri(), token, GithubOrg.class);
-        String[] allowedOrgs = githubOrg.split(",");
+    /**
+     * Falls back to the last known principal if Github could not be asked at all and serving stale principals is enabled for that case.
+     */
+    private CachedPrincipal lastKnownPrincipalOrThrow(String login, PrincipalCacheKey cacheKey, GithubAuthenticationException failure)
+            throws GithubAuthenticationException {
+        boolean serveStale;
+        if (failure instanceof GithubRateLimitException) {
+            metrics.throttled();
+            serveStale = configuration.isRateLimitServeStale();
+        } else if (failure instanceof GithubUnavailableException) {
+            serveStale = configuration.isCircuitBreakerServeStale();
+        } else {
+            throw failure;
+        }
+        CachedPrincipal lastKnown = serveStale ? lastKnownPrincipal(cacheKey) : null;
+        if (lastKnown == null) {
+            throw failure;
+        }
+        LOGGER.warn("{} Serving the last known principal for login: {}", failure.getMessage(), login);
+        return lastKnown;
+    }
 
-        if (orgsInToken.stream().noneMatch(org -> Arrays.asList(allowedOrgs).contains(org.getLogin()))) {
-            throw new GithubAuthenticationException("Given username is not in the Github Organization '" + githubOrg + "' or the Organization is not in the allowed list!");
+    /**
+     * @return the principal that was last loaded from Github for the login and token, along with the time it was loaded at, so that it is
+     * never mistaken for a fresh one. {@code null} if there is none, or if it is too old to be served.
+     */
+    private CachedPrincipal lastKnownPrincipal(PrincipalCacheKey cacheKey) {
+        ConditionalResponses previous = conditionalResponseCache.getIfPresent(cacheKey);
+        if (previous == null || previous.getPrincipal() == null) {
+            return null;
+        }
+        CachedPrincipal lastKnown = new CachedPrincipal(previous.getPrincipal(), previous.getLoadedAtMillis());
+        if (lastKnown.isOlderThan(configuration.getPrincipalCacheMaxStale().toMillis(), System.currentTimeMillis())) {
+            return null;
         }
+        metrics.staleServed();
+        return lastKnown;
+    }
+
+    private CompletableFuture<GithubPrincipal> doAuthzAsync(String loginName, char[] token, PrincipalCacheKey cacheKey) {
+        ConditionalResponses previous = conditionalResponseCache.getIfPresent(cacheKey);
+        ConditionalResponses current = new ConditionalResponses();
+        GithubCalls calls = new GithubCalls(token, cacheKey, previous == null ? new ConditionalResponses() : previous, current);
+
+        ListenableFuture<GithubPrincipal> loaded = configuration.isGraphqlEnabled()
+                ? submit(() -> queryPrincipal(loginName, calls))
+                : callRestApi(loginName, calls);
+
+        CompletableFuture<GithubPrincipal> result = new CompletableFuture<>();
+        Futures.addCallback(loaded, new FutureCallback<GithubPrincipal>() {
+            @Override
+            public void onSuccess(GithubPrincipal principal) {
+                long loadedAtMillis = System.currentTimeMillis();
+                current.setPrincipal(principal, loadedAtMillis);
+                conditionalResponseCache.put(cacheKey, current);
+                // Only principals that were actually loaded from Github are shared, never a last known principal served in an outage
+                publishToStore(cacheKey, new CachedPrincipal(principal, loadedAtMillis));
+                result.complete(principal);
+            }
+
+            @Override
+            public void onFailure(Throwable failure) {
+                result.completeExceptionally(failure);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
     }
 
-    private Set<String> generateRolesFromGithubOrgMemberships(char[] token, String loginName) throws GithubAuthenticationException {
-        Set<GithubTeam> teams = getAndSerializeCollection(configuration.getGithubUserTeamsUri(), token, GithubTeam.class);
-        if (teams.size() >= 100) {
-            LOGGER.warn("Fetching only the first 100 teams for user '{}'", loginName);
+    private ListenableFuture<GithubPrincipal> callRestApi(String loginName, GithubCalls calls) {
+        // The Github calls do not depend on each other, so they run concurrently and the first failure cancels the others.
+        ListenableFuture<GithubUser> githubUser = submit(() -> retrieveGithubUser(loginName, calls));
+        ListenableFuture<Void> orgMembership = Futures.immediateFuture(null);
+        Set<String> allowedOrgs = configuration.getGithubAllowedOrgs();
+        if (!allowedOrgs.isEmpty()) {
+            orgMembership = submit(() -> {
+                checkUserInOrg(allowedOrgs, calls);
+                return null;
+            });
         }
-        return teams.stream().map(this::mapGithubTeamToNexusRole).collect(Collectors.toSet());
+        // The same rules for all pages, even if the configuration changes in between
+        RoleMapping roleMapping = configuration.getRoleMapping();
+        ListenableFuture<Set<String>> roles = submit(() -> generateRolesFromGithubOrgMemberships(roleMapping, calls));
+        List<ListenableFuture<?>> allCalls = Arrays.asList(githubUser, orgMembership, roles);
+
+        return Futures.transform(allAsList(allCalls), ignored -> {
+            GithubPrincipal principal = new GithubPrincipal();
+            principal.setUsername(Futures.getUnchecked(githubUser).getLogin());
+            principal.setRoles(roleInterner.intern(Futures.getUnchecked(roles)));
+            return principal;
+        }, MoreExecutors.directExecutor());
     }
 
-    private String mapGithubTeamToNexusRole(GithubTeam team) {
-        return team.getOrganization().getLogin() + "/" + team.getName();
+    /**
+     * Gets the principal with GraphQL queries instead of the REST calls: a single one, unless the user is in more than 100 organizations or
+     * in more than 100 teams of one of them.
+     */
+    private GithubPrincipal queryPrincipal(String loginName, GithubCalls calls) throws GithubAuthenticationException {
+        Set<String> organizations = new HashSet<>();
+        Set<String> roles = new HashSet<>();
+        RoleMapping roleMapping = configuration.getRoleMapping();
+        String organizationsCursor = null;
+        do {
+            String cursor = organizationsCursor;
+            JsonNode viewer = query(calls, () -> graphql.viewerQuery(loginName, cursor)).path("viewer");
+            if (!viewer.isObject()) {
+                // Not a mismatching user, Github failed to answer for the user at all
+                throw new GithubAuthenticationException("Github GraphQL did not return the user.");
+            }
+            if (!loginName.equals(viewer.path("login").asText())) {
+                throw new GithubRejectedException("Given username does not match Github Username!");
+            }
+            JsonNode organizationPage = viewer.path("organizations");
+            for (JsonNode organization : organizationPage.path("nodes")) {
+                if (!organization.isObject()) {
+                    // Github could not answer for this organization, see query()
+                    continue;
+                }
+                String login = organization.path("login").asText();
+                organizations.add(login);
+                JsonNode teams = organization.path("teams");
+                GithubGraphql.forEachTeam(login, teams, roleMapping.getTeamKey(), (org, team) -> addRole(roles, roleMapping, org, team));
+                String teamsCursor = GithubGraphql.nextCursor(teams);
+                while (teamsCursor != null) {
+                    String nextTeams = teamsCursor;
+                    teams = query(calls, () -> graphql.organizationTeamsQuery(login, loginName, nextTeams)).path("organization").path("teams");
+                    GithubGraphql.forEachTeam(login, teams, roleMapping.getTeamKey(), (org, team) -> addRole(roles, roleMapping, org, team));
+                    teamsCursor = GithubGraphql.nextCursor(teams);
+                }
+            }
+            organizationsCursor = GithubGraphql.nextCursor(organizationPage);
+        } while (organizationsCursor != null);
+
+        Set<String> allowedOrgs = configuration.getGithubAllowedOrgs();
+        if (!allowedOrgs.isEmpty()) {
+            checkAllowedOrgs(allowedOrgs, organizations);
+        }
+        GithubPrincipal principal = new GithubPrincipal();
+        principal.setUsername(loginName);
+        principal.setRoles(roleInterner.intern(roles));
+        return principal;
     }
 
-    private BasicHeader constructGithubAuthorizationHeader(char[] token) {
-        return new BasicHeader("Authorization", "token " + new String(token));
+    @FunctionalInterface
+    private interface QueryBuilder {
+        byte[] build() throws IOException;
     }
 
-    private <T> T getAndSerializeObject(String uri, char[] token, Class<T> clazz) throws GithubAuthenticationException {
-        try (InputStreamReader reader = executeGet(uri, token)) {
-            JavaType javaType = mapper.getTypeFactory()
-                    .constructType(clazz);
-            return mapper.readValue(reader, javaType);
+    /**
+     * @return the data of the GraphQL response, which may lack the parts Github answered with an error, e.g. an organization that restricts
+     * access of OAuth apps
+     */
+    private JsonNode query(GithubCalls calls, QueryBuilder query) throws GithubAuthenticationException {
+        JsonNode response;
+        try {
+            response = calls.post(configuration.getGithubGraphqlUri(), query.build(), treeReader::readTree);
         } catch (IOException e) {
             throw new GithubAuthenticationException(e);
         }
+        if (GithubGraphql.hasError(response, "RATE_LIMITED")) {
+            // GraphQL answers an exhausted rate limit with a 200
+            LOGGER.warn("Github GraphQL rate limit exceeded");
+            throw rateLimits.exhausted(calls.cacheKey);
+        }
+        JsonNode data = response.path("data");
+        String errorType = GithubGraphql.errorType(response);
+        if (errorType != null) {
+            if (data.isMissingNode() || data.isNull()) {
+                LOGGER.warn("Authentication failed, GraphQL error type was {}", errorType);
+                throw new GithubAuthenticationException("Authentication failed.");
+            }
+            LOGGER.debug("Github GraphQL answered with partial data, first error type was {}", errorType);
+        }
+        return data;
     }
 
-    private <T> Set<T> getAndSerializeCollection(String uri, char[] token, Class<T> clazz) throws GithubAuthenticationException {
-        Set<T> result;
-        try (InputStreamReader reader = executeGet(uri, token)) {
-            JavaType javaType = mapper.getTypeFactory()
-                    .constructCollectionType(Set.class, clazz);
-            result = mapper.readValue(reader, javaType);
-        } catch (IOException e) {
-            throw new GithubAuthenticationException(e);
+    /**
+     * Runs the call on the request executor, see {@link #execute(Runnable)}.
+     */
+    private <T> ListenableFuture<T> submit(Callable<T> call) {
+        ListenableFutureTask<T> task = ListenableFutureTask.create(call);
+        try {
+            execute(task);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(new GithubUnavailableException("The Github client is stopped."));
+        }
+        return task;
+    }
+
+    /**
+     * Runs the call on the request executor, or on the calling thread if the queue of the executor is full. A burst of logins then slows
+     * down the threads that log in, like a pool of connections that is used up does, rather than failing the logins beyond the queue.
+     *
+     * @throws RejectedExecutionException if the executor is shut down
+     */
+    private void execute(Runnable call) {
+        try {
+            requestExecutor.execute(call);
+        } catch (RejectedExecutionException e) {
+            if (requestExecutor.isShutdown()) {
+                throw e;
+            }
+            call.run();
         }
-        return result;
     }
 
-    private InputStreamReader executeGet(String uri, char[] token) throws GithubAuthenticationException {
-        HttpGet request = new HttpGet(uri);
-        request.addHeader(constructGithubAuthorizationHeader(token));
+    /**
+     * Waits for the calls on a request thread. Rather than waiting for the calls no other request thread has picked up yet, which may
+     * never happen if all of them are waiting as well, it runs them itself. A call that is already running or done is not run again.
+     */
+    private <T> List<T> awaitAll(List<ListenableFutureTask<T>> calls) throws GithubAuthenticationException {
+        ListenableFuture<List<T>> all = allAsList(calls);
+        for (ListenableFutureTask<T> call : calls) {
+            if (all.isDone()) {
+                // One of the calls failed and the others were cancelled
+                break;
+            }
+            if (requestThreads != null) {
+                requestThreads.remove(call);
+            }
+            call.run();
+        }
         try {
-            HttpResponse response = client.execute(request);
-            if (response.getStatusLine().getStatusCode() != 200) {
-                LOGGER.warn("Authentication failed, status code was {}",
-                        response.getStatusLine().getStatusCode());
+            return all.get();
+        } catch (ExecutionException e) {
+            throw asAuthenticationException(e);
+        } catch (InterruptedException e) {
+            cancelAll(calls);
+            Thread.currentThread().interrupt();
+            throw new GithubAuthenticationException("Authentication cancelled.");
+        }
+    }
+
+    /**
+     * Like {@link Futures#allAsList}, but cancels (and interrupts) the calls that are still running as soon as one fails. Also unlike it, it
+     * does not log the failures of the other calls, which are mostly the first one seen again, e.g. an exhausted rate limit.
+     */
+    private static <T> ListenableFuture<List<T>> allAsList(List<? extends ListenableFuture<? extends T>> calls) {
+        SettableFuture<List<T>> all = SettableFuture.create();
+        AtomicInteger remaining = new AtomicInteger(calls.size());
+        for (ListenableFuture<? extends T> call : calls) {
+            Futures.addCallback(call, new FutureCallback<T>() {
+                @Override
+                public void onSuccess(T ignored) {
+                    if (remaining.decrementAndGet() == 0) {
+                        List<T> values = new ArrayList<>(calls.size());
+                        calls.forEach(done -> values.add(Futures.getUnchecked(done)));
+                        all.set(values);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable failure) {
+                    if (all.setException(failure)) {
+                        cancelAll(calls);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        if (calls.isEmpty()) {
+            all.set(new ArrayList<>());
+        }
+        return all;
+    }
+
+    private static void cancelAll(List<? extends ListenableFuture<?>> calls) {
+        calls.forEach(call -> call.cancel(true));
+    }
+
+    private GithubUser retrieveGithubUser(String loginName, GithubCalls calls) throws GithubAuthenticationException {
+        GithubUser githubUser = calls.get(configuration.getGithubUserUri(), link -> {}, content -> userReader.<GithubUser>readValue(content)).getValue();
+
+        if (!loginName.equals(githubUser.getLogin())) {
+            throw new GithubRejectedException("Given username does not match Github Username!");
+        }
+        return githubUser;
+    }
+
+    private void checkUserInOrg(Set<String> allowedOrgs, GithubCalls calls) throws GithubAuthenticationException {
+        Set<String> orgLogins = calls.get(configuration.getGithubUserOrgsUri(), link -> {}, content -> {
+            Set<String> logins = new HashSet<>();
+            for (GithubOrg org : orgsReader.<GithubOrg[]>readValue(content)) {
+                logins.add(org.getLogin());
+            }
+            return logins;
+        }).getValue();
+        checkAllowedOrgs(allowedOrgs, orgLogins);
+    }
+
+    private void checkAllowedOrgs(Set<String> allowedOrgs, Set<String> orgsInToken) throws GithubAuthenticationException {
+        for (String org : orgsInToken) {
+            if (allowedOrgs.contains(org)) {
+                return;
+            }
+        }
+        throw new GithubRejectedException("Given username is not in the Github Organization '" + String.join(",", allowedOrgs)
+                + "' or the Organization is not in the allowed list!");
+    }
+
+    private Set<String> generateRolesFromGithubOrgMemberships(RoleMapping roleMapping, GithubCalls calls) throws GithubAuthenticationException {
+        Set<String> roles = new HashSet<>();
+        List<ListenableFutureTask<ConditionalResponse<Set<String>>>> laterPages = new ArrayList<>();
+        ConditionalResponse<Set<String>> firstPage;
+        try {
+            firstPage = getTeamsPage(configuration.getGithubUserTeamsUri(), roleMapping, calls, link -> {
+                // The number of pages is known from the first response, so later pages are fetched while the first one is parsed. Pages
+                // beyond the prefetched ones are followed one by one below.
+                GithubLinks links = GithubLinks.parse(link);
+                int lastPrefetchedPage = Math.min(links.getLastPage(), MAX_PREFETCHED_TEAM_PAGES);
+                for (int page = 2; page <= lastPrefetchedPage; page++) {
+                    String pageUri = links.getPage(page);
+                    ListenableFutureTask<ConditionalResponse<Set<String>>> laterPage =
+                            ListenableFutureTask.create(() -> getTeamsPage(pageUri, roleMapping, calls, nextLink -> {}));
+                    laterPages.add(laterPage);
+                    try {
+                        requestExecutor.execute(laterPage);
+                    } catch (RejectedExecutionException e) {
+                        // Fetched by this thread below
+                    }
+                }
+            });
+        } catch (GithubAuthenticationException e) {
+            cancelAll(laterPages);
+            throw e;
+        }
+        roles.addAll(firstPage.getValue());
+
+        ConditionalResponse<Set<String>> lastPage = firstPage;
+        if (!laterPages.isEmpty()) {
+            List<ConditionalResponse<Set<String>>> pages = awaitAll(laterPages);
+            pages.forEach(page -> roles.addAll(page.getValue()));
+            lastPage = pages.get(pages.size() - 1);
+        }
+        String next = GithubLinks.parse(lastPage.getLink()).getNext();
+        while (next != null) {
+            ConditionalResponse<Set<String>> page = getTeamsPage(next, roleMapping, calls, nextLink -> {});
+            roles.addAll(page.getValue());
+            next = GithubLinks.parse(page.getLink()).getNext();
+        }
+        return roles;
+    }
+
+    private ConditionalResponse<Set<String>> getTeamsPage(String uri, RoleMapping roleMapping, GithubCalls calls, Consumer<String> onLink)
+            throws GithubAuthenticationException {
+        return calls.get(uri, onLink, content -> {
+            Set<String> roles = new HashSet<>();
+            teamsParser.parse(content, roleMapping.getTeamKey(), (organization, team) -> addRole(roles, roleMapping, organization, team));
+            return roles;
+        });
+    }
+
+    private void addRole(Set<String> roles, RoleMapping roleMapping, String organization, String team) {
+        String role = roleMapping.map(organization, team);
+        if (role != null) {
+            roles.add(roleInterner.intern(role));
+        }
+    }
+
+    private BasicHeader constructGithubAuthorizationHeader(char[] token) {
+        return new BasicHeader("Authorization", "token " + new String(token));
+    }
+
+    private HttpResponse executeGet(String uri, char[] token, PrincipalCacheKey cacheKey, ConditionalResponse<?> cached)
+            throws GithubAuthenticationException {
+        return execute(uri, () -> new HttpGet(uri), token, cacheKey, cached);
+    }
+
+    private HttpResponse executePost(String uri, byte[] body, char[] token, PrincipalCacheKey cacheKey) throws GithubAuthenticationException {
+        return execute(uri, () -> {
+            HttpPost request = new HttpPost(uri);
+            request.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+            return request;
+        }, token, cacheKey, null);
+    }
+
+    private HttpResponse execute(String uri, Supplier<HttpRequestBase> newRequest, char[] token, PrincipalCacheKey cacheKey,
+            ConditionalResponse<?> cached) throws GithubAuthenticationException {
+        // All calls only read, GraphQL queries too, so failed attempts can safely be repeated
+        int maxAttempts = Math.max(1, configuration.getRequestRetryMaxAttempts());
+        GithubApiMetrics.Endpoint endpoint = metrics.endpoint(uri);
+        // The same ones for all attempts, even if the configuration changes in between
+        RateLimitTracker rateLimits = this.rateLimits;
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        RequestConfig requestConfig = this.requestConfig;
+        for (int attempt = 1; ; attempt++) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Another call of the same authz already failed, don't bother Github any further
+                throw new GithubAuthenticationException("Authentication cancelled.");
+            }
+            // Don't spend a call Github would refuse anyway
+            rateLimits.checkAvailable(cacheKey);
+            circuitBreaker.acquire();
+            HttpRequestBase request = newRequest.get();
+            if (requestConfig != null) {
+                request.setConfig(requestConfig);
+            }
+            request.addHeader(constructGithubAuthorizationHeader(token));
+            if (cached != null && cached.getEtag() != null) {
+                request.addHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+            }
+            if (cached != null && cached.getLastModified() != null) {
+                request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+            }
+            long start = System.nanoTime();
+            HttpResponse response;
+            try {
+                response = client.execute(request);
+            } catch (IOException e) {
+                endpoint.ioError(System.nanoTime() - start);
                 request.releaseConnection();
+                if (Thread.currentThread().isInterrupted()) {
+                    circuitBreaker.release();
+                    throw new GithubAuthenticationException("Authentication cancelled.");
+                }
+                circuitBreaker.onFailure();
+                // Timeouts are not retried, they already held the thread for as long as configured
+                if (e instanceof InterruptedIOException || attempt >= maxAttempts) {
+                    throw new GithubUnavailableException(e);
+                }
+                LOGGER.debug("Calling {} failed, retrying", uri, e);
+                backOff(attempt);
+                continue;
+            }
+            long elapsed = System.nanoTime() - start;
+            int statusCode = response.getStatusLine().getStatusCode();
+            endpoint.response(statusCode, elapsed);
+            rateLimits.update(cacheKey, response);
+            if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                circuitBreaker.onFailure();
+                if (attempt >= maxAttempts) {
+                    LOGGER.warn("Github is unavailable, status code was {}", statusCode);
+                    throw new GithubUnavailableException("Github is unavailable, status code was " + statusCode + ".");
+                }
+                LOGGER.debug("Calling {} failed with status code {}, retrying", uri, statusCode);
+                backOff(attempt);
+                continue;
+            }
+            circuitBreaker.onResponse(TimeUnit.NANOSECONDS.toMillis(elapsed));
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return response;
+            }
+            if (statusCode != HttpStatus.SC_OK) {
+                String message = errorMessage(response);
+                // Consume the rest of the error body so the connection can go back to the pool instead of being dropped
+                EntityUtils.consumeQuietly(response.getEntity());
+                GithubRateLimitException throttled = rateLimits.throttled(cacheKey, response, message);
+                if (throttled != null) {
+                    LOGGER.warn("Github rate limit exceeded, status code was {}", statusCode);
+                    throw throttled;
+                }
+                LOGGER.warn("Authentication failed, status code was {}", statusCode);
+                // Only remembered as rejected if the credentials are wrong, a 403 may as well be a missing scope or a rate limit Github did
+                // not announce in the headers
+                if (statusCode == HttpStatus.SC_UNAUTHORIZED
+                        || statusCode == HttpStatus.SC_FORBIDDEN && message != null && message.toLowerCase(Locale.ROOT).contains("bad credentials")) {
+                    throw new GithubRejectedException("Authentication failed.");
+                }
                 throw new GithubAuthenticationException("Authentication failed.");
             }
-            return new InputStreamReader(response.getEntity().getContent());
-        } catch (IOException e) {
-            request.releaseConnection();
-            throw new GithubAuthenticationException(e);
+            return response;
         }
+    }
 
+    private void backOff(int attempt) throws GithubAuthenticationException {
+        metrics.retried();
+        long backoff = Math.min(configuration.getRequestRetryMaxBackoff(),
+                (long) configuration.getRequestRetryBackoff() << Math.min(attempt - 1, 16));
+        try {
+            // Full jitter spreads the retries of concurrent logins instead of sending them all at the same time
+            Thread.sleep(ThreadLocalRandom.current().nextLong(Math.max(backoff, 0) + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GithubAuthenticationException("Authentication cancelled.");
+        }
     }
 
+    /**
+     * @return the start of the body of an error response, which is where Github puts its message, {@code null} if there is no body
+     */
+    private static String errorMessage(HttpResponse response) {
+        if (response.getEntity() == null) {
+            return null;
+        }
+        byte[] message = new byte[MAX_ERROR_MESSAGE_BYTES];
+        int length = 0;
+        try (InputStream content = response.getEntity().getContent()) {
+            int read;
+            while (length < message.length && (read = content.read(message, length, message.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Failed to read the error response of Github", e);
+        }
+        return new String(message, 0, length, StandardCharsets.UTF_8);
+    }
+
+    static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    @FunctionalInterface
+    private interface ResponseParser<T> {
+        T parse(InputStream content) throws IOException;
+    }
+
+    /**
+     * The Github calls of a single authz. Calls that were made for the previous principal of the same login and token are sent as conditional
+     * requests, so a 304 Not Modified lets them reuse the previous result.
+     */
+    private class GithubCalls {
+        private final char[] token;
+        private final PrincipalCacheKey cacheKey;
+        private final ConditionalResponses previous;
+        private final ConditionalResponses current;
+
+        private GithubCalls(char[] token, PrincipalCacheKey cacheKey, ConditionalResponses previous, ConditionalResponses current) {
+            this.token = token;
+            this.cacheKey = cacheKey;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        /**
+         * @param onLink receives the Link header of the response before its body is parsed
+         */
+        private <T> ConditionalResponse<T> get(String uri, Consumer<String> onLink, ResponseParser<T> parser) throws GithubAuthenticationException {
+            ConditionalResponse<T> cached = previous.get(uri);
+            HttpResponse response = executeGet(uri, token, cacheKey, cached);
+            ConditionalResponse<T> result;
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                LOGGER.debug("Reusing unmodified response of {}", uri);
+                onLink.accept(cached.getLink());
+                result = cached;
+            } else {
+                String link = headerValue(response, "Link");
+                onLink.accept(link);
+                try (InputStream content = response.getEntity().getContent()) {
+                    result = new ConditionalResponse<>(headerValue(response, HttpHeaders.ETAG), headerValue(response, HttpHeaders.LAST_MODIFIED),
+                            link, parser.parse(content));
+                } catch (IOException e) {
+                    throw new GithubAuthenticationException(e);
+                }
+            }
+            current.put(uri, result);
+            return result;
+        }
+
+        /**
+         * Sends a GraphQL query, which can't be made conditional.
+         */
+        private <T> T post(String uri, byte[] body, ResponseParser<T> parser) throws GithubAuthenticationException {
+            HttpResponse response = executePost(uri, body, token, cacheKey);
+            try (InputStream content = response.getEntity().getContent()) {
+                return parser.parse(content);
+            } catch (IOException e) {
+                throw new GithubAuthenticationException(e);
+            }
+        }
+    }
 }
@@ -0,0 +1,180 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * The metrics of the {@link GithubApiClient}, registered with the metric registry of Nexus.
+ */
+class GithubApiMetrics {
+    private final MetricRegistry registry;
+
+    private final Meter throttled;
+
+    private final Meter staleServed;
+
+    private final Meter retried;
+
+    private final Meter cacheHits;
+
+    private final Meter cacheMisses;
+
+    private final Timer cacheLoads;
+
+    private final Meter storeHits;
+
+    private final Meter storeMisses;
+
+    private final Meter rejectionCacheHits;
+
+    private final Meter rejectionFilterHits;
+
+    private final Timer loadWaits;
+
+    private final Timer poolLeases;
+
+    private final Endpoint user;
+
+    private final Endpoint userOrgs;
+
+    private final Endpoint userTeams;
+
+    private final Endpoint graphql;
+
+    private final Endpoint other;
+
+    GithubApiMetrics(MetricRegistry registry, RateLimitTracker rateLimits, CircuitBreaker circuitBreaker) {
+        this.registry = registry;
+        throttled = registry.meter(name(GithubApiClient.class, "rate-limit", "throttled"));
+        staleServed = registry.meter(name(GithubApiClient.class, "principal", "stale-served"));
+        retried = registry.meter(name(GithubApiClient.class, "request", "retried"));
+        cacheHits = registry.meter(name(GithubApiClient.class, "principal-cache", "hit"));
+        cacheMisses = registry.meter(name(GithubApiClient.class, "principal-cache", "miss"));
+        cacheLoads = registry.timer(name(GithubApiClient.class, "principal-cache", "load"));
+        storeHits = registry.meter(name(GithubApiClient.class, "principal-store", "hit"));
+        storeMisses = registry.meter(name(GithubApiClient.class, "principal-store", "miss"));
+        rejectionCacheHits = registry.meter(name(GithubApiClient.class, "rejection-cache", "hit"));
+        rejectionFilterHits = registry.meter(name(GithubApiClient.class, "rejection-filter", "hit"));
+        // How long concurrent misses of the same principal wait for the load another request started
+        loadWaits = registry.timer(name(GithubApiClient.class, "principal-cache", "load-wait"));
+        poolLeases = registry.timer(name(GithubApiClient.class, "pool", "lease"));
+        user = new Endpoint("user");
+        userOrgs = new Endpoint("user-orgs");
+        userTeams = new Endpoint("user-teams");
+        graphql = new Endpoint("graphql");
+        other = new Endpoint("other");
+        // Replace the gauges of a previous instance, they would keep reporting the state that instance knew about
+        replaceGauge(name(GithubApiClient.class, "rate-limit", "remaining"), rateLimits::getLowestRemaining);
+        replaceGauge(name(GithubApiClient.class, "circuit-breaker", "state"), () -> circuitBreaker.getState().name());
+    }
+
+    <T> void replaceGauge(String name, Gauge<T> gauge) {
+        registry.remove(name);
+        registry.register(name, gauge);
+    }
+
+    void throttled() {
+        throttled.mark();
+    }
+
+    void staleServed() {
+        staleServed.mark();
+    }
+
+    void retried() {
+        retried.mark();
+    }
+
+    void cacheHit() {
+        cacheHits.mark();
+    }
+
+    void cacheMiss() {
+        cacheMisses.mark();
+    }
+
+    void storeHit() {
+        storeHits.mark();
+    }
+
+    void storeMiss() {
+        storeMisses.mark();
+    }
+
+    void rejectionCacheHit() {
+        rejectionCacheHits.mark();
+    }
+
+    void rejectionFilterHit() {
+        rejectionFilterHits.mark();
+    }
+
+    Timer cacheLoads() {
+        return cacheLoads;
+    }
+
+    Timer loadWaits() {
+        return loadWaits;
+    }
+
+    Timer poolLeases() {
+        return poolLeases;
+    }
+
+    /**
+     * @return the metrics of the Github API endpoint the uri belongs to, all pages of an endpoint share them
+     */
+    Endpoint endpoint(String uri) {
+        int query = uri.indexOf('?');
+        String path = query < 0 ? uri : uri.substring(0, query);
+        if (path.endsWith("/graphql")) {
+            return graphql;
+        } else if (path.endsWith("/user/teams")) {
+            return userTeams;
+        } else if (path.endsWith("/user/orgs")) {
+            return userOrgs;
+        } else if (path.endsWith("/user")) {
+            return user;
+        }
+        return other;
+    }
+
+    /**
+     * The time the requests to a Github API endpoint took until their response arrived, and how many got which status code.
+     */
+    class Endpoint {
+        private final String endpoint;
+
+        private final Timer requests;
+
+        private final Counter ioErrors;
+
+        private final ConcurrentMap<Integer, Counter> statusCodes = new ConcurrentHashMap<>();
+
+        private Endpoint(String endpoint) {
+            this.endpoint = endpoint;
+            requests = registry.timer(name(GithubApiClient.class, "request", endpoint));
+            ioErrors = registry.counter(name(GithubApiClient.class, "request", endpoint, "io-error"));
+        }
+
+        void response(int statusCode, long durationNanos) {
+            requests.update(durationNanos, TimeUnit.NANOSECONDS);
+            statusCodes.computeIfAbsent(statusCode,
+                    code -> registry.counter(name(GithubApiClient.class, "request", endpoint, "status", String.valueOf(code)))).inc();
+        }
+
+        void ioError(long durationNanos) {
+            requests.update(durationNanos, TimeUnit.NANOSECONDS);
+            ioErrors.inc();
+        }
+    }
+}
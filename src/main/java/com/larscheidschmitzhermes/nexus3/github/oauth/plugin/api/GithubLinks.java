@@ -0,0 +1,66 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The pagination links of a Github API response, taken from its <code>Link</code> header, e.g.
+ * <code>&lt;https://api.github.com/user/teams?per_page=100&amp;page=2&gt;; rel="next", &lt;https://api.github.com/user/teams?per_page=100&amp;page=3&gt;; rel="last"</code>
+ */
+class GithubLinks {
+    private static final Pattern LINK = Pattern.compile("<([^>]*)>\\s*;\\s*rel=\"([^\"]*)\"");
+
+    private static final Pattern PAGE = Pattern.compile("([?&])page=(\\d+)");
+
+    private final Map<String, String> uriByRel;
+
+    private GithubLinks(Map<String, String> uriByRel) {
+        this.uriByRel = uriByRel;
+    }
+
+    static GithubLinks parse(String linkHeader) {
+        Map<String, String> uriByRel = new HashMap<>();
+        if (linkHeader != null) {
+            Matcher matcher = LINK.matcher(linkHeader);
+            while (matcher.find()) {
+                uriByRel.put(matcher.group(2), matcher.group(1));
+            }
+        }
+        return new GithubLinks(uriByRel);
+    }
+
+    /**
+     * @return the uri of the next page, null if this is the last page
+     */
+    String getNext() {
+        return uriByRel.get("next");
+    }
+
+    /**
+     * @return the number of the last page, 0 if Github did not tell or the number is not a valid one
+     */
+    int getLastPage() {
+        String last = uriByRel.get("last");
+        if (last == null) {
+            return 0;
+        }
+        Matcher matcher = PAGE.matcher(last);
+        if (!matcher.find()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(matcher.group(2));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the uri of the given page, derived from the uri of the last page
+     */
+    String getPage(int page) {
+        return PAGE.matcher(uriByRel.get("last")).replaceFirst("$1page=" + page);
+    }
+}
@@ -1,16 +1,19 @@
 package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class GithubOrg {
-    private String login;
+public final class GithubOrg {
+    private final String login;
 
-    public String getLogin() {
-        return login;
+    @JsonCreator
+    public GithubOrg(@JsonProperty("login") String login) {
+        this.login = login;
     }
 
-    public void setLogin(String login) {
-        this.login = login;
+    public String getLogin() {
+        return login;
     }
 }
@@ -0,0 +1,64 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.BiConsumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streams a page of Github's <code>/user/teams</code> response and hands out the organization login and the name or the slug of every team
+ * as soon as it is read. All other fields of the (rather large) team objects are skipped without being materialized.
+ */
+class GithubTeamsParser {
+    private final JsonFactory jsonFactory;
+
+    GithubTeamsParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * @param teamKey the field that identifies a team, <code>name</code> or <code>slug</code>
+     */
+    void parse(InputStream content, String teamKey, BiConsumer<String, String> organizationAndTeam) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array of teams but got " + parser.getCurrentToken());
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                String team = null;
+                String organization = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (teamKey.equals(field)) {
+                        team = parser.getValueAsString();
+                    } else if ("organization".equals(field) && value == JsonToken.START_OBJECT) {
+                        organization = parseLogin(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (team != null && organization != null) {
+                    organizationAndTeam.accept(organization, team);
+                }
+            }
+        }
+    }
+
+    private String parseLogin(JsonParser parser) throws IOException {
+        String login = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("login".equals(field)) {
+                login = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return login;
+    }
+}
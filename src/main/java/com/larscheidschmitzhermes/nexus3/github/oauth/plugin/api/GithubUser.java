@@ -1,21 +1,25 @@
 package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.util.List;
-
+/**
+ * The two fields of Github's <code>/user</code> response the plugin needs, all others are skipped while parsing.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class GithubUser {
-    private List<GithubTeam> teams;
-    private String name;
-    private String login;
+public final class GithubUser {
+    private final String login;
+    private final String name;
 
-    public String getLogin() {
-        return login;
+    @JsonCreator
+    public GithubUser(@JsonProperty("login") String login, @JsonProperty("name") String name) {
+        this.login = login;
+        this.name = name;
     }
 
-    public void setLogin(String login) {
-        this.login = login;
+    public String getLogin() {
+        return login;
     }
 
     /**
@@ -25,8 +29,4 @@ public class GithubUser {
     public String getName() {
         return name;
     }
-
-    public void setName(String name) {
-        this.name = name;
-    }
 }
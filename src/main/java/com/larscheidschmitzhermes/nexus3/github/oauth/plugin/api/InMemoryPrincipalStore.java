@@ -0,0 +1,44 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link PrincipalStore} on the heap, shared by all clients within the same JVM.
+ */
+public class InMemoryPrincipalStore implements PrincipalStore {
+    static final InMemoryPrincipalStore SHARED = new InMemoryPrincipalStore();
+
+    private final ConcurrentMap<String, Stored> values = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] get(String key) {
+        Stored stored = values.get(key);
+        return stored == null ? null : stored.value;
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        values.put(key, new Stored(value, System.currentTimeMillis()));
+    }
+
+    @Override
+    public void remove(String key) {
+        values.remove(key);
+    }
+
+    @Override
+    public void evictStoredBefore(long storedBeforeMillis) {
+        values.values().removeIf(stored -> stored.storedAtMillis < storedBeforeMillis);
+    }
+
+    private static final class Stored {
+        private final byte[] value;
+        private final long storedAtMillis;
+
+        private Stored(byte[] value, long storedAtMillis) {
+            this.value = value;
+            this.storedAtMillis = storedAtMillis;
+        }
+    }
+}
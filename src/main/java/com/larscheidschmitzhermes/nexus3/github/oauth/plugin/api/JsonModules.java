@@ -0,0 +1,38 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import com.fasterxml.jackson.databind.Module;
+
+/**
+ * Loads the Jackson modules that replace reflection with generated code when binding JSON to objects, through reflection since Nexus does
+ * not necessarily ship them. Afterburner works on any JDK, Blackbird is its successor for Java 11 and later.
+ */
+final class JsonModules {
+    private static final String AFTERBURNER = "com.fasterxml.jackson.module.afterburner.AfterburnerModule";
+
+    private static final String BLACKBIRD = "com.fasterxml.jackson.module.blackbird.BlackbirdModule";
+
+    private JsonModules() {
+    }
+
+    /**
+     * @param name {@code afterburner} or {@code blackbird}
+     * @return the module
+     * @throws IllegalArgumentException if the name is unknown
+     * @throws IllegalStateException if the module is not on the class path
+     */
+    static Module load(String name) {
+        String className;
+        if ("afterburner".equalsIgnoreCase(name)) {
+            className = AFTERBURNER;
+        } else if ("blackbird".equalsIgnoreCase(name)) {
+            className = BLACKBIRD;
+        } else {
+            throw new IllegalArgumentException("Unknown Jackson module " + name);
+        }
+        try {
+            return Class.forName(className, true, JsonModules.class.getClassLoader()).asSubclass(Module.class).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            throw new IllegalStateException("Jackson module " + className + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Identifies a cached principal by the login and a keyed hash of the token it was obtained with, so the token itself is never kept on the
+ * heap. See {@link PrincipalCacheKeys}.
+ */
+final class PrincipalCacheKey {
+    private final String login;
+    private final byte[] tokenHash;
+    private final int hashCode;
+
+    PrincipalCacheKey(String login, byte[] tokenHash) {
+        this.login = login;
+        this.tokenHash = tokenHash;
+        this.hashCode = 31 * login.hashCode() + Arrays.hashCode(tokenHash);
+    }
+
+    String getLogin() {
+        return login;
+    }
+
+    byte[] getTokenHash() {
+        return tokenHash;
+    }
+
+    /**
+     * @param scope the configuration the principal was loaded with, see {@link GithubApiClient}
+     * @return the key of the principal in a {@link PrincipalStore}, a hex encoded SHA-256 hash of the scope, the login and the token hash,
+     * which is the same on every instance that shares the secret the token hash is keyed with and loads principals the same way
+     */
+    String getStoreKey(String scope) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(scope.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(login.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(tokenHash);
+            return BaseEncoding.base16().lowerCase().encode(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PrincipalCacheKey)) {
+            return false;
+        }
+        PrincipalCacheKey other = (PrincipalCacheKey) o;
+        return hashCode == other.hashCode && login.equals(other.login) && MessageDigest.isEqual(tokenHash, other.tokenHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return login;
+    }
+}
@@ -0,0 +1,59 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Creates {@link PrincipalCacheKey}s, hashing tokens with HMAC-SHA256 under a secret that never leaves this instance.
+ */
+class PrincipalCacheKeys {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final ThreadLocal<Mac> macs;
+
+    PrincipalCacheKeys() {
+        this(randomSecret());
+    }
+
+    PrincipalCacheKeys(byte[] secret) {
+        SecretKeySpec key = new SecretKeySpec(secret, ALGORITHM);
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        });
+    }
+
+    PrincipalCacheKey of(String login, char[] token) {
+        return new PrincipalCacheKey(login, hashToken(token));
+    }
+
+    byte[] hashToken(char[] token) {
+        // Encode the token straight from the char array, without an intermediate String, and wipe the encoded bytes afterwards
+        ByteBuffer encodedToken = StandardCharsets.UTF_8.encode(CharBuffer.wrap(token));
+        try {
+            Mac mac = macs.get();
+            mac.update(encodedToken);
+            return mac.doFinal();
+        } finally {
+            Arrays.fill(encodedToken.array(), (byte) 0);
+        }
+    }
+
+    private static byte[] randomSecret() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+}
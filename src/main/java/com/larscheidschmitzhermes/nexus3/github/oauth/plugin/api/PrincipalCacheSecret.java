@@ -0,0 +1,51 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The configured secret of the principal cache. The key to hash tokens with and the key to encrypt principals with are both derived from
+ * it, so that hashed keys and encrypted principals stay valid across restarts of Nexus.
+ */
+class PrincipalCacheSecret {
+    private final byte[] hashingKey;
+    private final byte[] encryptionKey;
+
+    private PrincipalCacheSecret(byte[] secret) {
+        hashingKey = derive(secret, "github-oauth-principal-cache-key");
+        encryptionKey = derive(secret, "github-oauth-principal-cache-encryption");
+    }
+
+    /**
+     * @param base64Secret a base64 encoded secret of at least 32 bytes
+     */
+    static PrincipalCacheSecret fromBase64(String base64Secret) {
+        byte[] secret = Base64.getDecoder().decode(base64Secret.trim());
+        if (secret.length < 32) {
+            throw new IllegalArgumentException("The principal cache encryption key must be at least 32 bytes long");
+        }
+        return new PrincipalCacheSecret(secret);
+    }
+
+    byte[] getHashingKey() {
+        return hashingKey;
+    }
+
+    byte[] getEncryptionKey() {
+        return encryptionKey;
+    }
+
+    private static byte[] derive(byte[] secret, String purpose) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return mac.doFinal(purpose.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubPrincipal;
+
+/**
+ * Encrypts principals with AES-GCM for storing them outside of the heap. The associated data binds an encrypted principal to the cache key
+ * and load time it is stored with, so encrypted principals can't be swapped between entries.
+ */
+class PrincipalCodec {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int IV_LENGTH = 12;
+
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final SecretKeySpec key;
+
+    private final SecureRandom random = new SecureRandom();
+
+    PrincipalCodec(byte[] encryptionKey) {
+        this.key = new SecretKeySpec(encryptionKey, "AES");
+    }
+
+    byte[] encrypt(PrincipalCacheKey cacheKey, CachedPrincipal cached) throws IOException {
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(plaintext);
+        out.writeUTF(cached.getPrincipal().getUsername());
+        out.writeInt(cached.getPrincipal().getRoles().size());
+        for (String role : cached.getPrincipal().getRoles()) {
+            out.writeUTF(role);
+        }
+        out.flush();
+
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(associatedData(cacheKey, cached.getLoadedAtMillis()));
+            byte[] ciphertext = cipher.doFinal(plaintext.toByteArray());
+            byte[] result = new byte[IV_LENGTH + ciphertext.length];
+            System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+            System.arraycopy(ciphertext, 0, result, IV_LENGTH, ciphertext.length);
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt principal", e);
+        }
+    }
+
+    CachedPrincipal decrypt(PrincipalCacheKey cacheKey, long loadedAtMillis, byte[] encrypted) throws IOException {
+        byte[] plaintext;
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, encrypted, 0, IV_LENGTH));
+            cipher.updateAAD(associatedData(cacheKey, loadedAtMillis));
+            plaintext = cipher.doFinal(encrypted, IV_LENGTH, encrypted.length - IV_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt principal, was the encryption key changed?", e);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plaintext));
+        GithubPrincipal principal = new GithubPrincipal();
+        principal.setUsername(in.readUTF());
+        int roleCount = in.readInt();
+        Set<String> roles = new HashSet<>();
+        for (int i = 0; i < roleCount; i++) {
+            roles.add(in.readUTF());
+        }
+        principal.setRoles(roles);
+        return new CachedPrincipal(principal, loadedAtMillis);
+    }
+
+    private static byte[] associatedData(PrincipalCacheKey cacheKey, long loadedAtMillis) throws IOException {
+        ByteArrayOutputStream associatedData = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(associatedData);
+        out.writeUTF(cacheKey.getLogin());
+        out.write(cacheKey.getTokenHash());
+        out.writeLong(loadedAtMillis);
+        out.flush();
+        return associatedData.toByteArray();
+    }
+}
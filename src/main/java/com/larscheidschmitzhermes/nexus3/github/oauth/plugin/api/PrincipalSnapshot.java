@@ -0,0 +1,204 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * A snapshot of the principal cache on disk, so a restarted Nexus does not have to ask Github about every user again.
+ * <p>
+ * The file consists of a header (magic number, version, a SHA-256 hash of the scope the principals were loaded with, number of entries)
+ * followed by the entries, each of which holds an id, the load time and the {@link PrincipalCodec encrypted} principal. The id is a SHA-256
+ * hash of the login and the keyed token hash, so the file does not reveal who logged in. The file is only readable by its owner. Opening a
+ * snapshot memory-maps the file and only indexes the entries that are not expired yet, an entry is decrypted when its principal is
+ * requested for the first time.
+ */
+class PrincipalSnapshot {
+    private static final int MAGIC = 0x47484F50;
+
+    // Version 1 held the logins in plaintext
+    private static final int VERSION = 2;
+
+    private static final int ID_LENGTH = 32;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final ByteBuffer entries;
+    private final Map<String, Integer> offsetsById;
+    private final PrincipalCodec codec;
+
+    private PrincipalSnapshot(ByteBuffer entries, Map<String, Integer> offsetsById, PrincipalCodec codec) {
+        this.entries = entries;
+        this.offsetsById = offsetsById;
+        this.codec = codec;
+    }
+
+    /**
+     * @param scope the configuration principals are loaded with now, see {@link GithubApiClient}
+     * @param loadedAfterMillis entries loaded from Github before that time are expired and skipped
+     * @return the snapshot, null if its principals were loaded with another scope
+     */
+    static PrincipalSnapshot open(Path path, String scope, PrincipalCodec codec, long loadedAfterMillis) throws IOException {
+        ByteBuffer entries;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Map<String, Integer> offsetsById = new ConcurrentHashMap<>();
+        try {
+            if (entries.getInt() != MAGIC || entries.getInt() != VERSION) {
+                throw new IOException("Not a principal cache snapshot of this version: " + path);
+            }
+            if (!readId(entries).equals(sha256(scope))) {
+                return null;
+            }
+            int count = entries.getInt();
+            for (int i = 0; i < count; i++) {
+                int offset = entries.position();
+                String id = readId(entries);
+                long loadedAtMillis = entries.getLong();
+                int length = entries.getInt();
+                entries.position(entries.position() + length);
+                if (loadedAtMillis > loadedAfterMillis) {
+                    offsetsById.put(id, offset);
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated principal cache snapshot: " + path, e);
+        }
+        return new PrincipalSnapshot(entries, offsetsById, codec);
+    }
+
+    /**
+     * Removes the principal of the given key from this snapshot.
+     *
+     * @return the principal, null if this snapshot does not contain the key
+     */
+    CachedPrincipal take(PrincipalCacheKey cacheKey) throws IOException {
+        Integer offset = offsetsById.remove(id(cacheKey));
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer entry = entries.duplicate();
+        entry.position(offset);
+        readId(entry);
+        long loadedAtMillis = entry.getLong();
+        byte[] encrypted = new byte[entry.getInt()];
+        entry.get(encrypted);
+        return codec.decrypt(cacheKey, loadedAtMillis, encrypted);
+    }
+
+    int size() {
+        return offsetsById.size();
+    }
+
+    /**
+     * Atomically replaces the snapshot at the given path with the given principals and the entries of the previous snapshot that were not
+     * taken yet.
+     *
+     * @param scope the configuration the principals and the previous snapshot were loaded with
+     */
+    static void write(Path path, String scope, Map<PrincipalCacheKey, CachedPrincipal> principals, PrincipalSnapshot previous,
+            PrincipalCodec codec) throws IOException {
+        // Both maps keep changing while the snapshot is written, the number of entries must match the entries that are written though
+        Map<String, PrincipalCacheKey> currentKeys = new HashMap<>();
+        Map<PrincipalCacheKey, CachedPrincipal> currentPrincipals = new HashMap<>(principals);
+        for (PrincipalCacheKey cacheKey : currentPrincipals.keySet()) {
+            currentKeys.put(id(cacheKey), cacheKey);
+        }
+        Map<String, Integer> previousOffsets = previous == null ? new HashMap<>() : new HashMap<>(previous.offsetsById);
+        previousOffsets.keySet().removeAll(currentKeys.keySet());
+
+        // Owner-only from the start, so the file is never readable by others, the move keeps the permissions
+        Path directory = path.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(directory, path.getFileName().toString(), TEMP_SUFFIX, ownerOnly(directory));
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeId(out, sha256(scope));
+                out.writeInt(currentKeys.size() + previousOffsets.size());
+                for (Map.Entry<String, PrincipalCacheKey> currentKey : currentKeys.entrySet()) {
+                    CachedPrincipal principal = currentPrincipals.get(currentKey.getValue());
+                    byte[] encrypted = codec.encrypt(currentKey.getValue(), principal);
+                    writeId(out, currentKey.getKey());
+                    out.writeLong(principal.getLoadedAtMillis());
+                    out.writeInt(encrypted.length);
+                    out.write(encrypted);
+                }
+                // Entries of the previous snapshot are still encrypted for their key and load time, they are copied as they are
+                for (Map.Entry<String, Integer> previousEntry : previousOffsets.entrySet()) {
+                    ByteBuffer entry = previous.entries.duplicate();
+                    entry.position(previousEntry.getValue());
+                    readId(entry);
+                    long loadedAtMillis = entry.getLong();
+                    byte[] encrypted = new byte[entry.getInt()];
+                    entry.get(encrypted);
+                    writeId(out, previousEntry.getKey());
+                    out.writeLong(loadedAtMillis);
+                    out.writeInt(encrypted.length);
+                    out.write(encrypted);
+                }
+            }
+            Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // Only left over if writing failed
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static FileAttribute<?>[] ownerOnly(Path directory) throws IOException {
+        if (!Files.getFileStore(directory).supportsFileAttributeView("posix")) {
+            // E.g. on Windows, where the file gets the access control list of the directory
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))};
+    }
+
+    private static String id(PrincipalCacheKey cacheKey) {
+        return sha256(cacheKey.getLogin().getBytes(StandardCharsets.UTF_8), new byte[]{0}, cacheKey.getTokenHash());
+    }
+
+    private static String sha256(String scope) {
+        return sha256(scope.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(byte[]... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] part : parts) {
+                digest.update(part);
+            }
+            return BaseEncoding.base16().lowerCase().encode(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String readId(ByteBuffer buffer) {
+        byte[] id = new byte[ID_LENGTH];
+        buffer.get(id);
+        return BaseEncoding.base16().lowerCase().encode(id);
+    }
+
+    private static void writeId(DataOutputStream out, String id) throws IOException {
+        out.write(BaseEncoding.base16().lowerCase().decode(id));
+    }
+}
@@ -0,0 +1,27 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.io.IOException;
+
+/**
+ * A second level behind the principal cache that several Nexus instances can share, so a principal one of them loaded from Github does not
+ * have to be loaded again by the others. Keys are hashes of the login and the (hashed) token, values are encrypted principals, neither
+ * reveals anything without the shared <code>github.principal.cache.encryption.key</code>.
+ */
+public interface PrincipalStore {
+    /**
+     * @return the value stored under the key, null if there is none
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Stores the value under the key, replacing any previous value at once: readers see either the previous or the new value.
+     */
+    void put(String key, byte[] value) throws IOException;
+
+    void remove(String key) throws IOException;
+
+    /**
+     * Removes all values that were stored before the given time.
+     */
+    void evictStoredBefore(long storedBeforeMillis) throws IOException;
+}
@@ -0,0 +1,178 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubRateLimitException;
+
+/**
+ * Tracks the rate limit budget Github reports through the {@code X-RateLimit-*} and {@code Retry-After} headers. The primary rate limit is
+ * tracked per token, secondary rate limits ({@code Retry-After}) hold back all calls of the client.
+ */
+class RateLimitTracker {
+    private static final String REMAINING = "X-RateLimit-Remaining";
+
+    private static final String RESET = "X-RateLimit-Reset";
+
+    private static final String RETRY_AFTER = "Retry-After";
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    // Github asks to wait at least a minute after hitting a secondary rate limit that did not say for how long
+    private static final long SECONDARY_RATE_LIMIT_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // Github's rate limit window is an hour, older budgets have been reset in any case
+    private static final long WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final int MAX_TRACKED_TOKENS = 10000;
+
+    private volatile int reserve;
+
+    private final Cache<PrincipalCacheKey, Budget> budgets = CacheBuilder.newBuilder()
+            .expireAfterWrite(WINDOW_MILLIS, TimeUnit.MILLISECONDS)
+            .maximumSize(MAX_TRACKED_TOKENS)
+            .build();
+
+    private volatile long blockedUntilMillis;
+
+    /**
+     * @param reserve the number of remaining calls below which the budget of a token is considered low
+     */
+    RateLimitTracker(int reserve) {
+        this.reserve = reserve;
+    }
+
+    /**
+     * Changes the reserve, keeping the budgets Github reported so far.
+     */
+    void setReserve(int reserve) {
+        this.reserve = reserve;
+    }
+
+    /**
+     * @throws GithubRateLimitException if a call for the token would be refused anyway
+     */
+    void checkAvailable(PrincipalCacheKey key) throws GithubRateLimitException {
+        long now = System.currentTimeMillis();
+        if (now < blockedUntilMillis) {
+            throw new GithubRateLimitException(blockedUntilMillis);
+        }
+        Budget budget = budgets.getIfPresent(key);
+        if (budget != null && budget.remaining <= 0 && now < budget.resetAtMillis) {
+            throw new GithubRateLimitException(budget.resetAtMillis);
+        }
+    }
+
+    /**
+     * @return whether the calls left for the token should be saved for logins that can't be served from the cache
+     */
+    boolean isLow(PrincipalCacheKey key) {
+        long now = System.currentTimeMillis();
+        if (now < blockedUntilMillis) {
+            return true;
+        }
+        Budget budget = budgets.getIfPresent(key);
+        return budget != null && budget.remaining < reserve && now < budget.resetAtMillis;
+    }
+
+    void update(PrincipalCacheKey key, HttpResponse response) {
+        long now = System.currentTimeMillis();
+        long remaining = longHeader(response, REMAINING);
+        long reset = longHeader(response, RESET);
+        if (remaining >= 0 && reset >= 0) {
+            budgets.put(key, new Budget(remaining, TimeUnit.SECONDS.toMillis(reset)));
+        }
+        long retryAfter = longHeader(response, RETRY_AFTER);
+        if (retryAfter >= 0) {
+            long blockedUntil = now + TimeUnit.SECONDS.toMillis(retryAfter);
+            if (blockedUntil > blockedUntilMillis) {
+                blockedUntilMillis = blockedUntil;
+            }
+        }
+    }
+
+    /**
+     * @param message the message of the error response, {@code null} if it has none
+     * @return the exception to fail with if the response refused the call because of a rate limit, otherwise {@code null}
+     */
+    GithubRateLimitException throttled(PrincipalCacheKey key, HttpResponse response, String message) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode != HttpStatus.SC_FORBIDDEN && statusCode != SC_TOO_MANY_REQUESTS) {
+            return null;
+        }
+        // A 403 is only a rate limit if Github says so, otherwise the token lacks a scope
+        if (longHeader(response, RETRY_AFTER) >= 0) {
+            return new GithubRateLimitException(blockedUntilMillis);
+        }
+        Budget budget = budgets.getIfPresent(key);
+        if (longHeader(response, REMAINING) == 0 && budget != null) {
+            return new GithubRateLimitException(budget.resetAtMillis);
+        }
+        if (statusCode == SC_TOO_MANY_REQUESTS || message != null && message.toLowerCase(Locale.ROOT).contains("rate limit")) {
+            long blockedUntil = System.currentTimeMillis() + SECONDARY_RATE_LIMIT_WAIT_MILLIS;
+            if (blockedUntil > blockedUntilMillis) {
+                blockedUntilMillis = blockedUntil;
+            }
+            return new GithubRateLimitException(blockedUntilMillis);
+        }
+        return null;
+    }
+
+    /**
+     * For a rate limit Github reported in the body of a response that looked fine otherwise, e.g. a GraphQL {@code RATE_LIMITED} error.
+     *
+     * @return the exception to fail with, until the budget of the token resets if the headers said when, otherwise for the time to wait
+     * after a secondary rate limit
+     */
+    GithubRateLimitException exhausted(PrincipalCacheKey key) {
+        long now = System.currentTimeMillis();
+        Budget budget = budgets.getIfPresent(key);
+        if (budget == null || budget.remaining > 0 || now >= budget.resetAtMillis) {
+            // Only this token is held back, other users have budgets of their own
+            budget = new Budget(0, now + SECONDARY_RATE_LIMIT_WAIT_MILLIS);
+            budgets.put(key, budget);
+        }
+        return new GithubRateLimitException(budget.resetAtMillis);
+    }
+
+    /**
+     * @return the lowest budget left of all tokens whose rate limit window has not been reset yet, -1 if none is known
+     */
+    long getLowestRemaining() {
+        long now = System.currentTimeMillis();
+        long lowest = -1;
+        for (Budget budget : budgets.asMap().values()) {
+            if (now < budget.resetAtMillis && (lowest < 0 || budget.remaining < lowest)) {
+                lowest = budget.remaining;
+            }
+        }
+        return lowest;
+    }
+
+    private static long longHeader(HttpResponse response, String name) {
+        String value = GithubApiClient.headerValue(response, name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class Budget {
+        private final long remaining;
+        private final long resetAtMillis;
+
+        private Budget(long remaining, long resetAtMillis) {
+            this.remaining = remaining;
+            this.resetAtMillis = resetAtMillis;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Shares role names and role sets between principals. Most users of an installation are members of the same few hundred teams, so instead
+ * of holding its own copies every principal refers to one canonical, immutable instance of its role names and of its role set. Instances
+ * that are no longer referenced by any principal are garbage collected.
+ */
+class RoleInterner {
+    private final Interner<String> roles = Interners.newWeakInterner();
+
+    private final Interner<ImmutableSet<String>> roleSets = Interners.newWeakInterner();
+
+    String intern(String role) {
+        return roles.intern(role);
+    }
+
+    ImmutableSet<String> intern(Set<String> roleSet) {
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        for (String role : roleSet) {
+            builder.add(intern(role));
+        }
+        return roleSets.intern(builder.build());
+    }
+}
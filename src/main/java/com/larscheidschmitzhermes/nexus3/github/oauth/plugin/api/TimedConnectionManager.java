@@ -0,0 +1,47 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * A connection pool that times how long requests wait to lease a connection, which grows once more logins call Github at the same time
+ * than there are connections in the pool.
+ */
+class TimedConnectionManager extends PoolingHttpClientConnectionManager {
+    private final Timer leases;
+
+    TimedConnectionManager(long timeToLive, TimeUnit unit, Timer leases) {
+        super(timeToLive, unit);
+        this.leases = leases;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        ConnectionRequest request = super.requestConnection(route, state);
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit unit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                Timer.Context lease = leases.time();
+                try {
+                    return request.get(timeout, unit);
+                } finally {
+                    lease.stop();
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+}
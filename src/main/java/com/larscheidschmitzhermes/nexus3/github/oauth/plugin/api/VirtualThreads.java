@@ -0,0 +1,58 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads on JDKs that have them (21 and later), through reflection since the plugin is still built for Java 8.
+ */
+final class VirtualThreads {
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    private VirtualThreads() {
+    }
+
+    static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return a factory for virtual threads named {@code <prefix><n>}
+     * @throws IllegalStateException if virtual threads are not available
+     */
+    static ThreadFactory factory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Virtual threads are not available", e);
+        }
+    }
+
+    /**
+     * @return an executor that starts a new virtual thread for every task
+     * @throws IllegalStateException if virtual threads are not available
+     */
+    static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory(prefix));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not available", e);
+        }
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            // Throws if virtual threads are still a preview feature of the running JDK and previews are not enabled
+            ofVirtual.invoke(null);
+            return ofVirtual;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
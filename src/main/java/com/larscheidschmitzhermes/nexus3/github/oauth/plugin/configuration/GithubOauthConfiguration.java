@@ -1,22 +1,47 @@
 package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Named;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
 
 import com.google.inject.Singleton;
 
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+/**
+ * The configuration in <code>etc/githuboauth.properties</code>. The file is parsed and validated once into an immutable snapshot, which the
+ * getters read from. Once started, the file is watched and a changed file replaces the snapshot at once, unless it is invalid. Components
+ * that derive state from the configuration are told which properties changed through {@link #addListener(Consumer)}.
+ */
 @Singleton
 @Named
-public class GithubOauthConfiguration {
+@ManagedLifecycle(phase = SERVICES)
+public class GithubOauthConfiguration extends LifecycleSupport {
     private static final String CONFIG_FILE = "githuboauth.properties";
 
     private static final String GITHUB_USER_PATH = "/user";
@@ -27,14 +52,94 @@ public class GithubOauthConfiguration {
 
     private static final Duration DEFAULT_PRINCIPAL_CACHE_TTL = Duration.ofMinutes(1);
 
+    private static final long DEFAULT_PRINCIPAL_CACHE_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private static final Duration DEFAULT_PRINCIPAL_CACHE_REFRESH_AFTER = Duration.ZERO;
+
+    private static final int DEFAULT_PRINCIPAL_CACHE_REFRESH_THREADS = 4;
+
+    private static final Duration DEFAULT_PRINCIPAL_CACHE_SNAPSHOT_INTERVAL = Duration.ofMinutes(5);
+
+    private static final Duration DEFAULT_CONDITIONAL_RESPONSE_CACHE_TTL = Duration.ofHours(24);
+
     private static final String DEFAULT_GITHUB_URL = "https://api.github.com";
 
     private static final String GITHUB_API_URL_KEY = "github.api.url";
 
+    private static final String GITHUB_GRAPHQL_ENABLED_KEY = "github.graphql.enabled";
+
+    private static final String GITHUB_GRAPHQL_URL_KEY = "github.graphql.url";
+
+    private static final String GITHUB_GRAPHQL_PATH = "/graphql";
+
     private static final String GITHUB_PRINCIPAL_CACHE_TTL_KEY = "github.principal.cache.ttl";
 
+    private static final String GITHUB_PRINCIPAL_CACHE_MAX_WEIGHT_KEY = "github.principal.cache.max-weight";
+
+    private static final String GITHUB_PRINCIPAL_CACHE_REFRESH_AFTER_KEY = "github.principal.cache.refresh-after";
+
+    private static final String GITHUB_PRINCIPAL_CACHE_REFRESH_THREADS_KEY = "github.principal.cache.refresh-threads";
+
+    private static final String GITHUB_PRINCIPAL_CACHE_ENCRYPTION_KEY_KEY = "github.principal.cache.encryption.key";
+
+    private static final String GITHUB_PRINCIPAL_CACHE_SNAPSHOT_PATH_KEY = "github.principal.cache.snapshot.path";
+
+    private static final String GITHUB_PRINCIPAL_CACHE_SNAPSHOT_INTERVAL_KEY = "github.principal.cache.snapshot.interval";
+
+    private static final String GITHUB_PRINCIPAL_CACHE_STORE_KEY = "github.principal.cache.store";
+
+    private static final String DEFAULT_PRINCIPAL_CACHE_STORE = "none";
+
+    private static final String GITHUB_PRINCIPAL_CACHE_STORE_PATH_KEY = "github.principal.cache.store.path";
+
+    private static final String GITHUB_CONDITIONAL_RESPONSE_CACHE_TTL_KEY = "github.principal.cache.revalidation.ttl";
+
+    private static final String GITHUB_PRINCIPAL_CACHE_MAX_STALE_KEY = "github.principal.cache.max-stale";
+
+    private static final Duration DEFAULT_PRINCIPAL_CACHE_MAX_STALE = Duration.ofHours(1);
+
+    private static final String GITHUB_REALM_CACHE_ENABLED_KEY = "github.realm.cache.enabled";
+
+    private static final String GITHUB_REALM_CACHE_TTL_KEY = "github.realm.cache.ttl";
+
+    private static final Duration DEFAULT_REALM_CACHE_TTL = Duration.ofSeconds(30);
+
+    private static final String GITHUB_REALM_CACHE_MAX_SIZE_KEY = "github.realm.cache.max-size";
+
+    private static final long DEFAULT_REALM_CACHE_MAX_SIZE = 10000;
+
+    private static final String GITHUB_REJECTION_CACHE_TTL_KEY = "github.rejection.cache.ttl";
+
+    private static final Duration DEFAULT_REJECTION_CACHE_TTL = Duration.ofSeconds(30);
+
+    private static final String GITHUB_REJECTION_CACHE_MAX_SIZE_KEY = "github.rejection.cache.max-size";
+
+    private static final long DEFAULT_REJECTION_CACHE_MAX_SIZE = 10000;
+
+    private static final String GITHUB_REJECTION_FILTER_SIZE_KEY = "github.rejection.filter.size";
+
+    private static final int DEFAULT_REJECTION_FILTER_SIZE = 0;
+
+    private static final String GITHUB_REJECTION_FILTER_THRESHOLD_KEY = "github.rejection.filter.threshold";
+
+    private static final int DEFAULT_REJECTION_FILTER_THRESHOLD = 3;
+
+    private static final String GITHUB_REJECTION_FILTER_DECAY_KEY = "github.rejection.filter.decay";
+
+    private static final Duration DEFAULT_REJECTION_FILTER_DECAY = Duration.ofMinutes(10);
+
+    private static final String GITHUB_RATE_LIMIT_RESERVE_KEY = "github.rate-limit.reserve";
+
+    private static final int DEFAULT_GITHUB_RATE_LIMIT_RESERVE = 100;
+
+    private static final String GITHUB_RATE_LIMIT_SERVE_STALE_KEY = "github.rate-limit.serve-stale";
+
     private static final String GITHUB_ORG = "github.org";
 
+    private static final String GITHUB_JSON_MODULE_KEY = "github.json.module";
+
+    private static final String DEFAULT_GITHUB_JSON_MODULE = "none";
+
     private static final String REQUEST_CONNECT_TIMEOUT = "request.timeout.connect";
 
     private static final int DEFAULT_REQUEST_CONNECT_TIMEOUT = -1;
@@ -47,50 +152,681 @@ public class GithubOauthConfiguration {
 
     private static final int DEFAULT_REQUEST_SOCKET_TIMEOUT = -1;
 
+    private static final String REQUEST_AUTHZ_TIMEOUT = "request.timeout.authz";
+
+    private static final int DEFAULT_REQUEST_AUTHZ_TIMEOUT = 60000;
+
+    private static final String REQUEST_EXECUTOR_THREADS = "request.executor.threads";
+
+    private static final int DEFAULT_REQUEST_EXECUTOR_THREADS = 16;
+
+    private static final String REQUEST_EXECUTOR_VIRTUAL_THREADS = "request.executor.virtual-threads";
+
+    private static final String DEFAULT_REQUEST_EXECUTOR_VIRTUAL_THREADS = "auto";
+
+    private static final String REQUEST_POOL_MAX_PER_ROUTE = "request.pool.max-per-route";
+
+    private static final int DEFAULT_REQUEST_POOL_MAX_PER_ROUTE = 50;
+
+    private static final String REQUEST_POOL_MAX_TOTAL = "request.pool.max-total";
+
+    private static final int DEFAULT_REQUEST_POOL_MAX_TOTAL = 100;
+
+    private static final String REQUEST_POOL_TIME_TO_LIVE = "request.pool.time-to-live";
+
+    private static final int DEFAULT_REQUEST_POOL_TIME_TO_LIVE = -1;
+
+    private static final String REQUEST_POOL_VALIDATE_AFTER_INACTIVITY = "request.pool.validate-after-inactivity";
+
+    private static final int DEFAULT_REQUEST_POOL_VALIDATE_AFTER_INACTIVITY = 2000;
+
+    private static final String REQUEST_POOL_MAX_IDLE_TIME = "request.pool.max-idle-time";
+
+    private static final int DEFAULT_REQUEST_POOL_MAX_IDLE_TIME = 60000;
+
+    private static final String REQUEST_RETRY_MAX_ATTEMPTS = "request.retry.max-attempts";
+
+    private static final int DEFAULT_REQUEST_RETRY_MAX_ATTEMPTS = 3;
+
+    private static final String REQUEST_RETRY_BACKOFF = "request.retry.backoff";
+
+    private static final int DEFAULT_REQUEST_RETRY_BACKOFF = 100;
+
+    private static final String REQUEST_RETRY_MAX_BACKOFF = "request.retry.max-backoff";
+
+    private static final int DEFAULT_REQUEST_RETRY_MAX_BACKOFF = 2000;
+
+    private static final String REQUEST_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "request.circuit-breaker.failure-threshold";
+
+    private static final int DEFAULT_REQUEST_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+
+    private static final String REQUEST_CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD = "request.circuit-breaker.slow-call-threshold";
+
+    private static final int DEFAULT_REQUEST_CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD = 10000;
+
+    private static final String REQUEST_CIRCUIT_BREAKER_OPEN_DURATION = "request.circuit-breaker.open-duration";
+
+    private static final int DEFAULT_REQUEST_CIRCUIT_BREAKER_OPEN_DURATION = 30000;
+
+    private static final String REQUEST_CIRCUIT_BREAKER_SERVE_STALE = "request.circuit-breaker.serve-stale";
+
+    // Editors save a file in several steps, the file is read once no more events arrived for this long
+    private static final long RELOAD_DELAY_MILLIS = 200;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(GithubOauthConfiguration.class);
 
-    private Properties configuration;
+    private final Path file;
+
+    private final List<Consumer<Set<String>>> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile Snapshot snapshot;
+
+    private WatchService watchService;
 
     public GithubOauthConfiguration() {
-        configuration = new Properties();
+        this(Paths.get(".", "etc", CONFIG_FILE));
+    }
 
-        try {
-            configuration.load(Files.newInputStream(Paths.get(".", "etc", CONFIG_FILE)));
+    public GithubOauthConfiguration(Path file) {
+        this.file = file;
+        Properties properties = new Properties();
+        try (InputStream content = Files.newInputStream(file)) {
+            properties.load(content);
         } catch (IOException e) {
             LOGGER.warn("Error reading github oauth properties, falling back to default configuration", e);
         }
+        try {
+            // Invalid tuning values fall back to their defaults one by one, github.org and the role mapping are taken as they are
+            snapshot = new Snapshot(properties, false);
+        } catch (IllegalArgumentException e) {
+            // There is no safe default for the role mapping, leaving out fewer teams than configured might grant roles
+            throw new IllegalStateException("Invalid github oauth properties: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory == null || !Files.isDirectory(directory)) {
+            return;
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        // Some editors replace the file instead of writing to it
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread watcher = new Thread(this::watch, "githuboauth-configuration-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (watchService != null) {
+            // Ends the watcher
+            watchService.close();
+        }
+    }
+
+    /**
+     * @param listener receives the names of the properties that changed after a new configuration was swapped in, but not their values,
+     * some are secret
+     */
+    public void addListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Set<String>> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return whether any of the changed properties is one of the given ones, a property ending with a dot stands for all properties
+     * starting with it
+     */
+    public static boolean anyChanged(Set<String> changed, String... properties) {
+        for (String key : changed) {
+            for (String property : properties) {
+                if (property.endsWith(".") ? key.startsWith(property) : key.equals(property)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                boolean changed = concernsFile(watchService.take());
+                WatchKey next;
+                while ((next = watchService.poll(RELOAD_DELAY_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= concernsFile(next);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    private boolean concernsFile(WatchKey key) {
+        boolean concernsFile = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            concernsFile |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+        }
+        key.reset();
+        return concernsFile;
+    }
+
+    /**
+     * Reads the file again and swaps in the new configuration, unless the file can't be read or holds an invalid value. The current
+     * configuration is kept in that case.
+     */
+    public void reload() {
+        Properties properties = new Properties();
+        try (InputStream content = Files.newInputStream(file)) {
+            properties.load(content);
+        } catch (IOException e) {
+            LOGGER.warn("Error reading github oauth properties, keeping the current configuration", e);
+            return;
+        }
+        Snapshot next;
+        try {
+            next = new Snapshot(properties, true);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid github oauth properties, keeping the current configuration: {}", e.getMessage());
+            return;
+        }
+        Set<String> changed;
+        synchronized (this) {
+            changed = changedProperties(snapshot.properties, properties);
+            if (changed.isEmpty()) {
+                return;
+            }
+            snapshot = next;
+        }
+        LOGGER.info("Reloaded github oauth properties, changed: {}", changed);
+        for (Consumer<Set<String>> listener : listeners) {
+            try {
+                listener.accept(changed);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to apply the changed github oauth properties", e);
+            }
+        }
+    }
+
+    private static Set<String> changedProperties(Properties previous, Properties current) {
+        Set<String> changed = new TreeSet<>();
+        Set<String> keys = new TreeSet<>(previous.stringPropertyNames());
+        keys.addAll(current.stringPropertyNames());
+        for (String key : keys) {
+            String previousValue = previous.getProperty(key);
+            if (previousValue == null || !previousValue.equals(current.getProperty(key))) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    static Set<String> githubAllowedOrgs(String githubOrg) {
+        Set<String> allowedOrgs = new HashSet<>();
+        for (String org : githubOrg.split(",")) {
+            if (!org.trim().isEmpty()) {
+                allowedOrgs.add(org.trim());
+            }
+        }
+        return Collections.unmodifiableSet(allowedOrgs);
+    }
+
+    static String githubUserUri(String githubApiUrl) {
+        return githubApiUrl + GITHUB_USER_PATH;
+    }
+
+    // Further pages are followed through the Link headers of the responses
+    static String githubUserTeamsUri(String githubApiUrl) {
+        return githubApiUrl + GITHUB_USER_TEAMS_PATH + "?per_page=100";
+    }
+
+    static String githubUserOrgsUri(String githubApiUrl) {
+        return githubApiUrl + GITHUB_USER_ORGS_PATH;
+    }
+
+    static String githubGraphqlUri(String githubApiUrl, String githubGraphqlUrl) {
+        if (!githubGraphqlUrl.isEmpty()) {
+            return githubGraphqlUrl;
+        }
+        // Github Enterprise serves the REST API at /api/v3 and GraphQL at /api/graphql
+        return (githubApiUrl.endsWith("/v3") ? githubApiUrl.substring(0, githubApiUrl.length() - "/v3".length()) : githubApiUrl)
+                + GITHUB_GRAPHQL_PATH;
     }
 
     public String getGithubApiUrl() {
-        return configuration.getProperty(GITHUB_API_URL_KEY, DEFAULT_GITHUB_URL);
+        return snapshot.githubApiUrl;
     }
 
     public String getGithubUserUri() {
-        return getGithubApiUrl() + GITHUB_USER_PATH;
+        return snapshot.githubUserUri;
     }
 
-    public String getGithubUserTeamsUri() { return getGithubApiUrl() + GITHUB_USER_TEAMS_PATH + "?per_page=100"; }
+    public String getGithubUserTeamsUri() {
+        return snapshot.githubUserTeamsUri;
+    }
 
-    public String getGithubUserOrgsUri() { return getGithubApiUrl() + GITHUB_USER_ORGS_PATH; }
+    public String getGithubUserOrgsUri() {
+        return snapshot.githubUserOrgsUri;
+    }
 
+    /**
+     * @return whether principals are loaded with a GraphQL query instead of the REST calls
+     */
+    public boolean isGraphqlEnabled() {
+        return snapshot.graphqlEnabled;
+    }
+
+    public String getGithubGraphqlUri() {
+        return snapshot.githubGraphqlUri;
+    }
 
     public String getGithubOrg() {
-        return configuration.getProperty(GITHUB_ORG, "");
+        return snapshot.githubOrg;
+    }
+
+    /**
+     * @return the organizations of {@link #getGithubOrg()}, empty if anyone may log in
+     */
+    public Set<String> getGithubAllowedOrgs() {
+        return snapshot.githubAllowedOrgs;
+    }
+
+    public RoleMapping getRoleMapping() {
+        return snapshot.roleMapping;
+    }
+
+    /**
+     * @return the Jackson module that speeds up parsing the responses of Github, {@code none}, {@code afterburner} or {@code blackbird}
+     */
+    public String getGithubJsonModule() {
+        return snapshot.githubJsonModule;
     }
 
     public Duration getPrincipalCacheTtl() {
-        return Duration.parse(configuration.getProperty(GITHUB_PRINCIPAL_CACHE_TTL_KEY, DEFAULT_PRINCIPAL_CACHE_TTL.toString()));
+        return snapshot.principalCacheTtl;
+    }
+
+    /**
+     * @return the maximum total weight of the principal cache, roughly the heap in bytes its entries retain
+     */
+    public long getPrincipalCacheMaxWeight() {
+        return snapshot.principalCacheMaxWeight;
+    }
+
+    /**
+     * @return the age after which a cached principal is refreshed in the background while it is still being served, zero to disable
+     */
+    public Duration getPrincipalCacheRefreshAfter() {
+        return snapshot.principalCacheRefreshAfter;
+    }
+
+    public int getPrincipalCacheRefreshThreads() {
+        return snapshot.principalCacheRefreshThreads;
+    }
+
+    /**
+     * @return the base64 encoded secret the principal cache hashes tokens and encrypts principals with, empty if not configured
+     */
+    public String getPrincipalCacheEncryptionKey() {
+        return snapshot.principalCacheEncryptionKey;
+    }
+
+    /**
+     * @return the file the principal cache is snapshotted to, empty if snapshots are disabled
+     */
+    public String getPrincipalCacheSnapshotPath() {
+        return snapshot.principalCacheSnapshotPath;
+    }
+
+    public Duration getPrincipalCacheSnapshotInterval() {
+        return snapshot.principalCacheSnapshotInterval;
+    }
+
+    /**
+     * @return the second level behind the principal cache: {@code none}, {@code memory} to share principals within the JVM or
+     * {@code directory} to share them through the directory at {@link #getPrincipalCacheStorePath()}
+     */
+    public String getPrincipalCacheStore() {
+        return snapshot.principalCacheStore;
+    }
+
+    public String getPrincipalCacheStorePath() {
+        return snapshot.principalCacheStorePath;
+    }
+
+    public Duration getConditionalResponseCacheTtl() {
+        return snapshot.conditionalResponseCacheTtl;
+    }
+
+    /**
+     * @return the age, counted from the time it was loaded from Github, up to which the last known principal of a token may be served while
+     * the rate limit is low or Github is unavailable
+     */
+    public Duration getPrincipalCacheMaxStale() {
+        return snapshot.principalCacheMaxStale;
+    }
+
+    /**
+     * @return whether the realm caches authentications and authorizations itself, so that repeated requests don't even reach the principal cache
+     */
+    public boolean isRealmCacheEnabled() {
+        return snapshot.realmCacheEnabled;
+    }
+
+    public Duration getRealmCacheTtl() {
+        return snapshot.realmCacheTtl;
+    }
+
+    public long getRealmCacheMaxSize() {
+        return snapshot.realmCacheMaxSize;
+    }
+
+    /**
+     * @return for how long credentials Github rejected are rejected again without asking Github, zero to always ask Github
+     */
+    public Duration getRejectionCacheTtl() {
+        return snapshot.rejectionCacheTtl;
+    }
+
+    public long getRejectionCacheMaxSize() {
+        return snapshot.rejectionCacheMaxSize;
+    }
+
+    /**
+     * @return the number of counters of the filter that remembers rejected credentials beyond the rejection cache, zero to disable it
+     */
+    public int getRejectionFilterSize() {
+        return snapshot.rejectionFilterSize;
+    }
+
+    /**
+     * @return how often credentials must have been rejected before the filter rejects them without asking Github
+     */
+    public int getRejectionFilterThreshold() {
+        return snapshot.rejectionFilterThreshold;
+    }
+
+    /**
+     * @return how often the counts of the filter are halved
+     */
+    public Duration getRejectionFilterDecay() {
+        return snapshot.rejectionFilterDecay;
+    }
+
+    /**
+     * @return the number of remaining Github calls of a token below which its last known principal is served instead of loading it again
+     */
+    public int getRateLimitReserve() {
+        return snapshot.rateLimitReserve;
+    }
+
+    /**
+     * @return whether the last known principal of a token may be served while its rate limit budget is low or used up
+     */
+    public boolean isRateLimitServeStale() {
+        return snapshot.rateLimitServeStale;
     }
 
     public int getRequestConnectTimeout() {
-        return Integer.parseInt(configuration.getProperty(REQUEST_CONNECT_TIMEOUT, String.valueOf(DEFAULT_REQUEST_CONNECT_TIMEOUT)));
+        return snapshot.requestConnectTimeout;
     }
 
     public Integer getRequestConnectionRequestTimeout() {
-        return Integer.parseInt(configuration.getProperty(REQUEST_CONNECTION_REQUEST_TIMEOUT, String.valueOf(DEFAULT_REQUEST_CONNECTION_REQUEST_TIMEOUT)));
+        return snapshot.requestConnectionRequestTimeout;
     }
 
     public Integer getRequestSocketTimeout() {
-        return Integer.parseInt(configuration.getProperty(REQUEST_SOCKET_TIMEOUT, String.valueOf(DEFAULT_REQUEST_SOCKET_TIMEOUT)));
+        return snapshot.requestSocketTimeout;
+    }
+
+    /**
+     * @return how long a synchronous authz waits for the principal in milliseconds, zero or less to wait as long as it takes
+     */
+    public int getRequestAuthzTimeout() {
+        return snapshot.requestAuthzTimeout;
+    }
+
+    public int getRequestExecutorThreads() {
+        return snapshot.requestExecutorThreads;
+    }
+
+    /**
+     * @return {@code auto} to call Github on virtual threads if the JDK has them, {@code true} or {@code false} to force either mode
+     */
+    public String getRequestExecutorVirtualThreads() {
+        return snapshot.requestExecutorVirtualThreads;
+    }
+
+    public int getRequestPoolMaxPerRoute() {
+        return snapshot.requestPoolMaxPerRoute;
+    }
+
+    public int getRequestPoolMaxTotal() {
+        return snapshot.requestPoolMaxTotal;
+    }
+
+    public int getRequestPoolTimeToLive() {
+        return snapshot.requestPoolTimeToLive;
+    }
+
+    public int getRequestPoolValidateAfterInactivity() {
+        return snapshot.requestPoolValidateAfterInactivity;
+    }
+
+    public int getRequestPoolMaxIdleTime() {
+        return snapshot.requestPoolMaxIdleTime;
+    }
+
+    /**
+     * @return the number of attempts of a Github call that fails with a 5xx status code or a connection error, including the first one
+     */
+    public int getRequestRetryMaxAttempts() {
+        return snapshot.requestRetryMaxAttempts;
+    }
+
+    public int getRequestRetryBackoff() {
+        return snapshot.requestRetryBackoff;
+    }
+
+    public int getRequestRetryMaxBackoff() {
+        return snapshot.requestRetryMaxBackoff;
+    }
+
+    /**
+     * @return the number of failed or slow Github calls in a row after which Github is not called for a while, zero to disable
+     */
+    public int getCircuitBreakerFailureThreshold() {
+        return snapshot.circuitBreakerFailureThreshold;
+    }
+
+    public int getCircuitBreakerSlowCallThreshold() {
+        return snapshot.circuitBreakerSlowCallThreshold;
+    }
+
+    public int getCircuitBreakerOpenDuration() {
+        return snapshot.circuitBreakerOpenDuration;
+    }
+
+    /**
+     * @return whether the last known principal of a token may be served while Github is unavailable
+     */
+    public boolean isCircuitBreakerServeStale() {
+        return snapshot.circuitBreakerServeStale;
+    }
+
+    /**
+     * The parsed values of the properties, so the getters neither parse nor concatenate anything. If strict, an invalid value fails the whole
+     * snapshot, otherwise only an invalid role mapping does and any other invalid value is replaced by its default.
+     */
+    private static final class Snapshot {
+        private final boolean strict;
+        private final Properties properties;
+        private final String githubApiUrl;
+        private final String githubUserUri;
+        private final String githubUserTeamsUri;
+        private final String githubUserOrgsUri;
+        private final boolean graphqlEnabled;
+        private final String githubGraphqlUri;
+        private final String githubOrg;
+        private final Set<String> githubAllowedOrgs;
+        private final RoleMapping roleMapping;
+        private final String githubJsonModule;
+        private final Duration principalCacheTtl;
+        private final long principalCacheMaxWeight;
+        private final Duration principalCacheRefreshAfter;
+        private final int principalCacheRefreshThreads;
+        private final String principalCacheEncryptionKey;
+        private final String principalCacheSnapshotPath;
+        private final Duration principalCacheSnapshotInterval;
+        private final String principalCacheStore;
+        private final String principalCacheStorePath;
+        private final Duration conditionalResponseCacheTtl;
+        private final Duration principalCacheMaxStale;
+        private final boolean realmCacheEnabled;
+        private final Duration realmCacheTtl;
+        private final long realmCacheMaxSize;
+        private final Duration rejectionCacheTtl;
+        private final long rejectionCacheMaxSize;
+        private final int rejectionFilterSize;
+        private final int rejectionFilterThreshold;
+        private final Duration rejectionFilterDecay;
+        private final int rateLimitReserve;
+        private final boolean rateLimitServeStale;
+        private final int requestConnectTimeout;
+        private final int requestConnectionRequestTimeout;
+        private final int requestSocketTimeout;
+        private final int requestAuthzTimeout;
+        private final int requestExecutorThreads;
+        private final String requestExecutorVirtualThreads;
+        private final int requestPoolMaxPerRoute;
+        private final int requestPoolMaxTotal;
+        private final int requestPoolTimeToLive;
+        private final int requestPoolValidateAfterInactivity;
+        private final int requestPoolMaxIdleTime;
+        private final int requestRetryMaxAttempts;
+        private final int requestRetryBackoff;
+        private final int requestRetryMaxBackoff;
+        private final int circuitBreakerFailureThreshold;
+        private final int circuitBreakerSlowCallThreshold;
+        private final int circuitBreakerOpenDuration;
+        private final boolean circuitBreakerServeStale;
+
+        private Snapshot(Properties properties, boolean strict) {
+            this.strict = strict;
+            this.properties = (Properties) properties.clone();
+            githubApiUrl = properties.getProperty(GITHUB_API_URL_KEY, DEFAULT_GITHUB_URL);
+            githubUserUri = githubUserUri(githubApiUrl);
+            githubUserTeamsUri = githubUserTeamsUri(githubApiUrl);
+            githubUserOrgsUri = githubUserOrgsUri(githubApiUrl);
+            graphqlEnabled = Boolean.parseBoolean(properties.getProperty(GITHUB_GRAPHQL_ENABLED_KEY, "false"));
+            githubGraphqlUri = githubGraphqlUri(githubApiUrl, properties.getProperty(GITHUB_GRAPHQL_URL_KEY, ""));
+            githubOrg = properties.getProperty(GITHUB_ORG, "");
+            githubAllowedOrgs = githubAllowedOrgs(githubOrg);
+            roleMapping = RoleMapping.compile(properties);
+            githubJsonModule = properties.getProperty(GITHUB_JSON_MODULE_KEY, DEFAULT_GITHUB_JSON_MODULE).trim();
+            principalCacheTtl = duration(properties, GITHUB_PRINCIPAL_CACHE_TTL_KEY, DEFAULT_PRINCIPAL_CACHE_TTL);
+            principalCacheMaxWeight = number(properties, GITHUB_PRINCIPAL_CACHE_MAX_WEIGHT_KEY,
+                    DEFAULT_PRINCIPAL_CACHE_MAX_WEIGHT, 0, Long.MAX_VALUE);
+            principalCacheRefreshAfter = duration(properties, GITHUB_PRINCIPAL_CACHE_REFRESH_AFTER_KEY, DEFAULT_PRINCIPAL_CACHE_REFRESH_AFTER);
+            principalCacheRefreshThreads = (int) number(properties, GITHUB_PRINCIPAL_CACHE_REFRESH_THREADS_KEY,
+                    DEFAULT_PRINCIPAL_CACHE_REFRESH_THREADS, 1, Integer.MAX_VALUE);
+            principalCacheEncryptionKey = properties.getProperty(GITHUB_PRINCIPAL_CACHE_ENCRYPTION_KEY_KEY, "");
+            principalCacheSnapshotPath = properties.getProperty(GITHUB_PRINCIPAL_CACHE_SNAPSHOT_PATH_KEY, "");
+            principalCacheSnapshotInterval = duration(properties, GITHUB_PRINCIPAL_CACHE_SNAPSHOT_INTERVAL_KEY, DEFAULT_PRINCIPAL_CACHE_SNAPSHOT_INTERVAL);
+            principalCacheStore = properties.getProperty(GITHUB_PRINCIPAL_CACHE_STORE_KEY, DEFAULT_PRINCIPAL_CACHE_STORE);
+            principalCacheStorePath = properties.getProperty(GITHUB_PRINCIPAL_CACHE_STORE_PATH_KEY, "");
+            conditionalResponseCacheTtl = duration(properties, GITHUB_CONDITIONAL_RESPONSE_CACHE_TTL_KEY, DEFAULT_CONDITIONAL_RESPONSE_CACHE_TTL);
+            principalCacheMaxStale = duration(properties, GITHUB_PRINCIPAL_CACHE_MAX_STALE_KEY, DEFAULT_PRINCIPAL_CACHE_MAX_STALE);
+            realmCacheEnabled = Boolean.parseBoolean(properties.getProperty(GITHUB_REALM_CACHE_ENABLED_KEY, "false"));
+            realmCacheTtl = duration(properties, GITHUB_REALM_CACHE_TTL_KEY, DEFAULT_REALM_CACHE_TTL);
+            realmCacheMaxSize = number(properties, GITHUB_REALM_CACHE_MAX_SIZE_KEY, DEFAULT_REALM_CACHE_MAX_SIZE, 0, Long.MAX_VALUE);
+            rejectionCacheTtl = duration(properties, GITHUB_REJECTION_CACHE_TTL_KEY, DEFAULT_REJECTION_CACHE_TTL);
+            rejectionCacheMaxSize = number(properties, GITHUB_REJECTION_CACHE_MAX_SIZE_KEY, DEFAULT_REJECTION_CACHE_MAX_SIZE, 0, Long.MAX_VALUE);
+            rejectionFilterSize = (int) number(properties, GITHUB_REJECTION_FILTER_SIZE_KEY, DEFAULT_REJECTION_FILTER_SIZE, 0, Integer.MAX_VALUE);
+            rejectionFilterThreshold = (int) number(properties, GITHUB_REJECTION_FILTER_THRESHOLD_KEY,
+                    DEFAULT_REJECTION_FILTER_THRESHOLD, 1, Integer.MAX_VALUE);
+            rejectionFilterDecay = duration(properties, GITHUB_REJECTION_FILTER_DECAY_KEY, DEFAULT_REJECTION_FILTER_DECAY);
+            rateLimitReserve = (int) number(properties, GITHUB_RATE_LIMIT_RESERVE_KEY, DEFAULT_GITHUB_RATE_LIMIT_RESERVE, 0, Integer.MAX_VALUE);
+            rateLimitServeStale = Boolean.parseBoolean(properties.getProperty(GITHUB_RATE_LIMIT_SERVE_STALE_KEY, "false"));
+            requestConnectTimeout = (int) number(properties, REQUEST_CONNECT_TIMEOUT, DEFAULT_REQUEST_CONNECT_TIMEOUT, -1, Integer.MAX_VALUE);
+            requestConnectionRequestTimeout = (int) number(properties, REQUEST_CONNECTION_REQUEST_TIMEOUT,
+                    DEFAULT_REQUEST_CONNECTION_REQUEST_TIMEOUT, -1, Integer.MAX_VALUE);
+            requestSocketTimeout = (int) number(properties, REQUEST_SOCKET_TIMEOUT, DEFAULT_REQUEST_SOCKET_TIMEOUT, -1, Integer.MAX_VALUE);
+            requestAuthzTimeout = (int) number(properties, REQUEST_AUTHZ_TIMEOUT,
+                    DEFAULT_REQUEST_AUTHZ_TIMEOUT, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            requestExecutorThreads = (int) number(properties, REQUEST_EXECUTOR_THREADS, DEFAULT_REQUEST_EXECUTOR_THREADS, 1, Integer.MAX_VALUE);
+            requestExecutorVirtualThreads = properties.getProperty(REQUEST_EXECUTOR_VIRTUAL_THREADS, DEFAULT_REQUEST_EXECUTOR_VIRTUAL_THREADS);
+            requestPoolMaxPerRoute = (int) number(properties, REQUEST_POOL_MAX_PER_ROUTE, DEFAULT_REQUEST_POOL_MAX_PER_ROUTE, 1, Integer.MAX_VALUE);
+            requestPoolMaxTotal = (int) number(properties, REQUEST_POOL_MAX_TOTAL, DEFAULT_REQUEST_POOL_MAX_TOTAL, 1, Integer.MAX_VALUE);
+            requestPoolTimeToLive = (int) number(properties, REQUEST_POOL_TIME_TO_LIVE,
+                    DEFAULT_REQUEST_POOL_TIME_TO_LIVE, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            requestPoolValidateAfterInactivity = (int) number(properties, REQUEST_POOL_VALIDATE_AFTER_INACTIVITY,
+                    DEFAULT_REQUEST_POOL_VALIDATE_AFTER_INACTIVITY, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            requestPoolMaxIdleTime = (int) number(properties, REQUEST_POOL_MAX_IDLE_TIME,
+                    DEFAULT_REQUEST_POOL_MAX_IDLE_TIME, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            requestRetryMaxAttempts = (int) number(properties, REQUEST_RETRY_MAX_ATTEMPTS,
+                    DEFAULT_REQUEST_RETRY_MAX_ATTEMPTS, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            requestRetryBackoff = (int) number(properties, REQUEST_RETRY_BACKOFF, DEFAULT_REQUEST_RETRY_BACKOFF, 0, Integer.MAX_VALUE);
+            requestRetryMaxBackoff = (int) number(properties, REQUEST_RETRY_MAX_BACKOFF, DEFAULT_REQUEST_RETRY_MAX_BACKOFF, 0, Integer.MAX_VALUE);
+            circuitBreakerFailureThreshold = (int) number(properties, REQUEST_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                    DEFAULT_REQUEST_CIRCUIT_BREAKER_FAILURE_THRESHOLD, 0, Integer.MAX_VALUE);
+            circuitBreakerSlowCallThreshold = (int) number(properties, REQUEST_CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD,
+                    DEFAULT_REQUEST_CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            circuitBreakerOpenDuration = (int) number(properties, REQUEST_CIRCUIT_BREAKER_OPEN_DURATION,
+                    DEFAULT_REQUEST_CIRCUIT_BREAKER_OPEN_DURATION, 0, Integer.MAX_VALUE);
+            circuitBreakerServeStale = Boolean.parseBoolean(properties.getProperty(REQUEST_CIRCUIT_BREAKER_SERVE_STALE, "false"));
+        }
+
+        private Duration duration(Properties properties, String key, Duration defaultValue) {
+            String value = properties.getProperty(key);
+            if (value == null) {
+                return defaultValue;
+            }
+            Duration duration;
+            try {
+                duration = Duration.parse(value.trim());
+            } catch (DateTimeParseException e) {
+                return invalid(key + " is not a duration like PT1M: " + value, defaultValue);
+            }
+            if (duration.isNegative()) {
+                return invalid(key + " must not be negative but is " + value, defaultValue);
+            }
+            return duration;
+        }
+
+        private long number(Properties properties, String key, long defaultValue, long min, long max) {
+            String value = properties.getProperty(key);
+            if (value == null) {
+                return defaultValue;
+            }
+            long number;
+            try {
+                number = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return invalid(key + " is not a number: " + value, defaultValue);
+            }
+            if (number < min || number > max) {
+                return invalid(key + " is out of range: " + value, defaultValue);
+            }
+            return number;
+        }
+
+        private <T> T invalid(String message, T defaultValue) {
+            if (strict) {
+                throw new IllegalArgumentException(message);
+            }
+            LOGGER.warn("Invalid github oauth property, falling back to its default: {}", message);
+            return defaultValue;
+        }
     }
 }
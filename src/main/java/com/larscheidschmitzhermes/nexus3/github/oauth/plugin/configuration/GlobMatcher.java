@@ -0,0 +1,109 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps names to the value of the first of a list of patterns they match, where <code>*</code> stands for any number of characters. Patterns
+ * without a wildcard are looked up in a hash map and take precedence. All others are compiled into a trie that shares their common
+ * prefixes, so a name is matched against all of them in a single pass over its characters.
+ */
+class GlobMatcher<V> {
+    private final Map<String, V> exact = new HashMap<>();
+
+    private final Node<V> root = new Node<>();
+
+    private int globs;
+
+    void add(String pattern, V value) {
+        if (pattern.indexOf('*') < 0) {
+            exact.putIfAbsent(pattern, value);
+            return;
+        }
+        Node<V> node = root;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                // Consecutive wildcards match the same as a single one
+                if (node.wildcard == null) {
+                    node.wildcard = new Node<>();
+                    node.wildcard.loops = true;
+                }
+                node = node.wildcard;
+                while (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                    i++;
+                }
+            } else {
+                node = node.children.computeIfAbsent(c, ignored -> new Node<>());
+            }
+        }
+        if (node.value == null) {
+            node.value = value;
+            node.order = globs++;
+        }
+    }
+
+    /**
+     * @return the value of the name itself, otherwise of the first wildcard pattern it matches, {@code null} if it matches none
+     */
+    V match(String name) {
+        V value = exact.get(name);
+        if (value != null || globs == 0) {
+            return value;
+        }
+        List<Node<V>> states = new ArrayList<>();
+        enter(states, root);
+        List<Node<V>> next = new ArrayList<>();
+        for (int i = 0; i < name.length() && !states.isEmpty(); i++) {
+            char c = name.charAt(i);
+            for (Node<V> state : states) {
+                if (state.loops) {
+                    enter(next, state);
+                }
+                Node<V> child = state.children.get(c);
+                if (child != null) {
+                    enter(next, child);
+                }
+            }
+            List<Node<V>> swap = states;
+            states = next;
+            next = swap;
+            next.clear();
+        }
+        Node<V> first = null;
+        for (Node<V> state : states) {
+            if (state.value != null && (first == null || state.order < first.order)) {
+                first = state;
+            }
+        }
+        return first == null ? null : first.value;
+    }
+
+    private static <V> void enter(List<Node<V>> states, Node<V> node) {
+        // A wildcard may match nothing at all
+        for (Node<V> state = node; state != null; state = state.wildcard) {
+            if (!states.contains(state)) {
+                states.add(state);
+            }
+            if (state.loops) {
+                break;
+            }
+        }
+    }
+
+    private static class Node<V> {
+        private final Map<Character, Node<V>> children = new HashMap<>();
+
+        // The node behind a wildcard following this one
+        private Node<V> wildcard;
+
+        // Whether this node is behind a wildcard, and so stays active for every further character
+        private boolean loops;
+
+        private V value;
+
+        private int order;
+    }
+}
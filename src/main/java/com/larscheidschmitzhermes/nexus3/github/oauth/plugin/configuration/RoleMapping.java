@@ -0,0 +1,158 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Translates the teams of a user into Nexus roles, following the <code>github.roles.*</code> properties. By default a team becomes the role
+ * <code>organization/team</code>. Per organization, teams can be left out with allow and deny patterns, and renamed to a role of their
+ * own, which also collapses many teams into one role. Patterns may contain <code>*</code> wildcards. The rules of the organization
+ * <code>*</code> apply to all organizations without rules of their own. Organizations are matched regardless of case, like Github does.
+ * <p>
+ * The rules are compiled once per configuration, mapping a team then takes a hash lookup of its organization and a single pass over its
+ * name per kind of rule.
+ */
+public final class RoleMapping {
+    private static final String PREFIX = "github.roles.";
+
+    private static final String TEAM_KEY = PREFIX + "key";
+
+    private static final String ALL_ORGANIZATIONS = "*";
+
+    private static final Rules NO_RULES = new Rules();
+
+    private final String teamKey;
+
+    private final Map<String, Rules> rules;
+
+    private final Rules defaultRules;
+
+    private final String definition;
+
+    private RoleMapping(String teamKey, Map<String, Rules> rules, String definition) {
+        this.teamKey = teamKey;
+        this.definition = definition;
+        this.defaultRules = rules.getOrDefault(ALL_ORGANIZATIONS, NO_RULES);
+        rules.remove(ALL_ORGANIZATIONS);
+        this.rules = rules;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a <code>github.roles.*</code> property is unknown or malformed
+     */
+    public static RoleMapping compile(Properties properties) {
+        String teamKey = properties.getProperty(TEAM_KEY, "name").trim();
+        if (!teamKey.equals("name") && !teamKey.equals("slug")) {
+            throw new IllegalArgumentException(TEAM_KEY + " must be name or slug but is " + teamKey);
+        }
+        Map<String, Rules> rules = new HashMap<>();
+        StringBuilder definition = new StringBuilder(TEAM_KEY).append('=').append(teamKey).append('\n');
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            if (!key.startsWith(PREFIX) || key.equals(TEAM_KEY)) {
+                continue;
+            }
+            definition.append(key).append('=').append(properties.getProperty(key).trim()).append('\n');
+            int dot = key.lastIndexOf('.');
+            // Otherwise a deny rule written in another case than Github's login would silently not apply
+            String organization = key.substring(PREFIX.length(), Math.max(dot, PREFIX.length())).toLowerCase(Locale.ROOT);
+            String rule = key.substring(dot + 1);
+            if (organization.isEmpty()) {
+                throw new IllegalArgumentException("Unknown role mapping property " + key);
+            }
+            Rules organizationRules = rules.computeIfAbsent(organization, ignored -> new Rules());
+            String value = properties.getProperty(key);
+            switch (rule) {
+                case "allow":
+                    checkUnset(key, organizationRules.allow);
+                    organizationRules.allow = patterns(value);
+                    break;
+                case "deny":
+                    checkUnset(key, organizationRules.deny);
+                    organizationRules.deny = patterns(value);
+                    break;
+                case "rename":
+                    checkUnset(key, organizationRules.rename);
+                    organizationRules.rename = renames(key, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown role mapping property " + key + ", expected allow, deny or rename");
+            }
+        }
+        return new RoleMapping(teamKey, rules, definition.toString());
+    }
+
+    private static void checkUnset(String key, GlobMatcher<?> rule) {
+        if (rule != null) {
+            throw new IllegalArgumentException(key + " is set more than once, in another case of the organization");
+        }
+    }
+
+    private static GlobMatcher<Boolean> patterns(String value) {
+        GlobMatcher<Boolean> patterns = new GlobMatcher<>();
+        for (String pattern : value.split(",")) {
+            if (!pattern.trim().isEmpty()) {
+                patterns.add(pattern.trim(), Boolean.TRUE);
+            }
+        }
+        return patterns;
+    }
+
+    private static GlobMatcher<String> renames(String key, String value) {
+        GlobMatcher<String> renames = new GlobMatcher<>();
+        for (String rename : value.split(",")) {
+            if (rename.trim().isEmpty()) {
+                continue;
+            }
+            int separator = rename.lastIndexOf('=');
+            if (separator < 0 || rename.substring(0, separator).trim().isEmpty() || rename.substring(separator + 1).trim().isEmpty()) {
+                throw new IllegalArgumentException(key + " must be a list of team=role but contains " + rename.trim());
+            }
+            renames.add(rename.substring(0, separator).trim(), rename.substring(separator + 1).trim());
+        }
+        return renames;
+    }
+
+    /**
+     * @return the field of a team that identifies it in the rules and in the default role names, <code>name</code> or <code>slug</code>
+     */
+    public String getTeamKey() {
+        return teamKey;
+    }
+
+    /**
+     * @return the properties the mapping was compiled from in a canonical order, equal for mappings compiled from the same properties
+     */
+    public String getDefinition() {
+        return definition;
+    }
+
+    /**
+     * @param organization the login of the organization, in any case
+     * @param team the name or the slug of the team, see {@link #getTeamKey()}
+     * @return the role of the team, {@code null} if the team is left out
+     */
+    public String map(String organization, String team) {
+        // Logins are mostly lowercase already, toLowerCase then returns the login itself
+        Rules organizationRules = rules.getOrDefault(organization.toLowerCase(Locale.ROOT), defaultRules);
+        if (organizationRules.deny != null && organizationRules.deny.match(team) != null) {
+            return null;
+        }
+        if (organizationRules.allow != null && organizationRules.allow.match(team) == null) {
+            return null;
+        }
+        String role = organizationRules.rename != null ? organizationRules.rename.match(team) : null;
+        return role != null ? role : organization + "/" + team;
+    }
+
+    private static class Rules {
+        // Null if all teams are allowed
+        private GlobMatcher<Boolean> allow;
+
+        private GlobMatcher<Boolean> deny;
+
+        private GlobMatcher<String> rename;
+    }
+}
@@ -1,5 +1,6 @@
 package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubApiClient;
 import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubOrg;
@@ -7,25 +8,37 @@ import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubTeam;
 import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubUser;
 import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.GithubOauthConfiguration;
 import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.MockGithubOauthConfiguration;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicHeader;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.core.Is;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnitRunner;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -34,46 +47,33 @@ public class GithubApiClientTest {
     private ObjectMapper mapper = new ObjectMapper();
 
     private List<GithubTeam> mockTeams() {
-        GithubOrg org = new GithubOrg();
-        org.setLogin("TEST-ORG");
+        GithubOrg org = new GithubOrg("TEST-ORG");
 
         List<GithubTeam> teams = new ArrayList<>();
 
-        GithubTeam team = new GithubTeam();
-        team.setOrganization(org);
-        team.setName("admin");
-        teams.add(team);
+        teams.add(new GithubTeam("admin", org));
 
         return teams;
     }
 
-    private List<GithubTeam> mockTooManyTeams() {
+    private List<GithubTeam> mockTeams(int from, int to) {
         List<GithubTeam> teams = new ArrayList<>();
 
-        GithubOrg org = new GithubOrg();
-        org.setLogin("TEST-ORG");
-        for (int i = 0; i < 100; i++) {
-            GithubTeam team = new GithubTeam();
-            team.setOrganization(org);
-            team.setName("admin_team_"+i);
-            teams.add(team);
+        GithubOrg org = new GithubOrg("TEST-ORG");
+        for (int i = from; i < to; i++) {
+            teams.add(new GithubTeam("admin_team_"+i, org));
         }
 
         return teams;
     }
 
     private GithubUser mockUser(String username) {
-        GithubUser user = new GithubUser();
-        user.setName(username);
-        user.setLogin("demo-user");
-        return user;
+        return new GithubUser("demo-user", username);
     }
 
     private Set<GithubOrg> mockOrg(String orgname) {
         Set orgs = new HashSet();
-        GithubOrg org = new GithubOrg();
-        org.setLogin(orgname);
-        orgs.add(org);
+        orgs.add(new GithubOrg(orgname));
         return orgs;
     }
 
@@ -93,22 +93,11 @@ public class GithubApiClientTest {
         return mockClient;
     }
 
-    private HttpClient fullyFunctionalMockClient2ManyTeams() throws IOException {
-        HttpClient mockClient = mock(HttpClient.class);
-        mockResponsesForGithubAuthRequest2Many(mockClient);
-        return mockClient;
-    }
-
     private void mockResponsesForGithubAuthRequest(HttpClient mockClient) throws IOException {
         HttpResponse mockUserResponse = createMockResponse(mockUser("Hans Wurst"));
         when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> answerOnInvocation(invocationOnMock, mockUserResponse));
     }
 
-    private void mockResponsesForGithubAuthRequest2Many(HttpClient mockClient) throws IOException {
-        HttpResponse mockUserResponse = createMockResponse(mockUser("Hans Wurst"));
-        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> answerOnInvocation2Many(invocationOnMock, mockUserResponse));
-    }
-
     private HttpResponse answerOnInvocation(InvocationOnMock invocationOnMock, HttpResponse mockUserResponse) throws IOException {
         HttpResponse mockTeamResponse = createMockResponse(mockTeams());
         HttpResponse mockOrgsResponse = createMockResponse(mockOrg("TEST-ORG"));
@@ -124,36 +113,159 @@ public class GithubApiClientTest {
         return null;
     }
 
-    private HttpResponse answerOnInvocation2Many(InvocationOnMock invocationOnMock, HttpResponse mockUserResponse) throws IOException {
-        HttpResponse mockTeamResponse = createMockResponse(mockTooManyTeams());
-        HttpResponse mockOrgsResponse = createMockResponse(mockOrg("TEST-ORG"));
+    private HttpClient graphqlMockClient() throws IOException {
+        return graphqlMockClient("{\"data\":{\"viewer\":{\"login\":\"demo-user\","
+                + "\"organizations\":{\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":null},\"nodes\":[{\"login\":\"TEST-ORG\","
+                + "\"teams\":{\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":null},\"nodes\":[{\"name\":\"admin\"}]}}]}}}}");
+    }
 
-        String uriString = ((HttpGet) invocationOnMock.getArguments()[0]).getURI().toString();
-        if (uriString.equals(config.getGithubUserTeamsUri())) {
-            return mockTeamResponse;
-        } else if (uriString.equals(config.getGithubUserUri())) {
-            return mockUserResponse;
-        } else if (uriString.equals(config.getGithubUserOrgsUri())) {
-            return mockOrgsResponse;
+    private HttpClient graphqlMockClient(String response) throws IOException {
+        HttpClient mockClient = mock(HttpClient.class);
+        HttpResponse mockViewerResponse = createMockResponse(mapper.readTree(response));
+        when(mockClient.execute(Mockito.any(HttpPost.class))).thenReturn(mockViewerResponse);
+        return mockClient;
+    }
+
+    private HttpResponse createMockTeamsPage(int from, int to, String linkHeader) throws IOException {
+        HttpResponse mockTeamsResponse = createMockResponse(mockTeams(from, to));
+        when(mockTeamsResponse.getFirstHeader("Link")).thenReturn(linkHeader == null ? null : new BasicHeader("Link", linkHeader));
+        return mockTeamsResponse;
+    }
+
+    private HttpClient paginatedTeamsMockClient(boolean lastPageKnown) throws IOException {
+        String teamsUri = config.getGithubUserTeamsUri();
+        Map<String, HttpResponse> teamPages = new HashMap<>();
+        teamPages.put(teamsUri, createMockTeamsPage(0, 100, "<" + teamsUri + "&page=2>; rel=\"next\"" +
+                (lastPageKnown ? ", <" + teamsUri + "&page=3>; rel=\"last\"" : "")));
+        teamPages.put(teamsUri + "&page=2", createMockTeamsPage(100, 200, "<" + teamsUri + "&page=3>; rel=\"next\"" +
+                (lastPageKnown ? ", <" + teamsUri + "&page=3>; rel=\"last\"" : "")));
+        teamPages.put(teamsUri + "&page=3", createMockTeamsPage(200, 250, null));
+
+        HttpClient mockClient = mock(HttpClient.class);
+        HttpResponse mockUserResponse = createMockResponse(mockUser("Hans Wurst"));
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            String uriString = ((HttpGet) invocationOnMock.getArguments()[0]).getURI().toString();
+            if (teamPages.containsKey(uriString)) {
+                return teamPages.get(uriString);
+            }
+            return answerOnInvocation(invocationOnMock, mockUserResponse);
+        });
+        return mockClient;
+    }
+
+    @Test
+    public void shouldFetchAllTeamPagesIfLastPageIsKnown() throws Exception {
+        HttpClient mockClient = paginatedTeamsMockClient(true);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().size(), Is.is(250));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().contains("TEST-ORG/admin_team_249"), Is.is(true));
+        MatcherAssert.assertThat(authorizedPrincipal.getUsername(), Is.is("demo-user"));
+        Mockito.verify(mockClient, Mockito.times(5)).execute(Mockito.any(HttpGet.class));
+    }
+
+    @Test
+    public void teamPagesBeyondThePrefetchedOnesAreFollowedOneByOne() throws Exception {
+        String teamsUri = config.getGithubUserTeamsUri();
+        Map<String, HttpResponse> teamPages = new HashMap<>();
+        for (int page = 1; page <= 15; page++) {
+            String link = page == 15 ? null
+                    : "<" + teamsUri + "&page=" + (page + 1) + ">; rel=\"next\", <" + teamsUri + "&page=15>; rel=\"last\"";
+            teamPages.put(page == 1 ? teamsUri : teamsUri + "&page=" + page, createMockTeamsPage((page - 1) * 10, page * 10, link));
         }
-        return null;
+        HttpClient mockClient = mock(HttpClient.class);
+        HttpResponse mockUserResponse = createMockResponse(mockUser("Hans Wurst"));
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            String uriString = ((HttpGet) invocationOnMock.getArguments()[0]).getURI().toString();
+            if (teamPages.containsKey(uriString)) {
+                return teamPages.get(uriString);
+            }
+            return answerOnInvocation(invocationOnMock, mockUserResponse);
+        });
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().size(), Is.is(150));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().contains("TEST-ORG/admin_team_149"), Is.is(true));
+        Mockito.verify(mockClient, Mockito.times(17)).execute(Mockito.any(HttpGet.class));
+    }
+
+    @Test
+    public void teamPagesAreFetchedWithASingleRequestThread() throws Exception {
+        HttpClient mockClient = paginatedTeamsMockClient(true);
+        config.setRequestExecutorVirtualThreads("false");
+        config.setRequestExecutorThreads(1);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().size(), Is.is(250));
+        Mockito.verify(mockClient, Mockito.times(5)).execute(Mockito.any(HttpGet.class));
     }
 
     @Test
-    public void shouldWarnIfTooManyTeams() throws Exception {
-        mockStatic(LoggerFactory.class);
-        Logger logger = mock(Logger.class);
-        when(LoggerFactory.getLogger(any(Class.class))).thenReturn(logger);
+    public void callsBeyondAFullRequestQueueRunOnTheCallingThread() throws Exception {
+        CountDownLatch requestThreadBlocked = new CountDownLatch(1);
+        AtomicInteger callsOnCallingThread = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            if (Thread.currentThread().getName().startsWith("github-api-")) {
+                // Keeps the only request thread busy, so the queue fills up
+                requestThreadBlocked.await();
+            } else {
+                callsOnCallingThread.incrementAndGet();
+            }
+            return answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+        });
+        config.setRequestExecutorVirtualThreads("false");
+        config.setRequestExecutorThreads(1);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        // Three calls per login are more than the request thread and its queue take
+        List<CompletableFuture<GithubPrincipal>> logins = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            logins.add(clientToTest.authzAsync("demo-user", ("DUMMY-" + i).toCharArray()));
+        }
+        requestThreadBlocked.countDown();
+
+        for (CompletableFuture<GithubPrincipal> login : logins) {
+            MatcherAssert.assertThat(login.get(10, TimeUnit.SECONDS).getUsername(), Is.is("demo-user"));
+        }
+        MatcherAssert.assertThat(callsOnCallingThread.get() > 0, Is.is(true));
+    }
 
-        HttpClient mockClient = fullyFunctionalMockClient2ManyTeams();
+    @Test
+    public void shouldFollowNextTeamPages() throws Exception {
+        HttpClient mockClient = paginatedTeamsMockClient(false);
 
         GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
         GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
 
-        verify(logger).warn("Fetching only the first 100 teams for user '{}'","demo-user");
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().size(), Is.is(250));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().contains("TEST-ORG/admin_team_0"), Is.is(true));
+        Mockito.verify(mockClient, Mockito.times(5)).execute(Mockito.any(HttpGet.class));
+    }
 
-        MatcherAssert.assertThat(authorizedPrincipal.getRoles().size(), Is.is(100));
-        MatcherAssert.assertThat(authorizedPrincipal.getUsername(), Is.is("demo-user"));
+    @Test
+    public void roleMappingLeavesOutAndRenamesTeams() throws Exception {
+        HttpClient mockClient = paginatedTeamsMockClient(true);
+        config.setRoleMapping(
+                "github.roles.TEST-ORG.deny", "admin_team_1*",
+                "github.roles.TEST-ORG.rename", "admin_team_2*=admins, admin_team_0=owner");
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        // 111 teams are denied and 61 are collapsed into a single role
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().size(), Is.is(79));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().contains("TEST-ORG/admin_team_150"), Is.is(false));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().contains("TEST-ORG/admin_team_249"), Is.is(false));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().contains("TEST-ORG/admin_team_3"), Is.is(true));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().contains("admins"), Is.is(true));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().contains("owner"), Is.is(true));
     }
 
     @Test
@@ -168,6 +280,86 @@ public class GithubApiClientTest {
         MatcherAssert.assertThat(authorizedPrincipal.getUsername(), Is.is("demo-user"));
     }
 
+    @Test
+    public void requestsAndCacheLookupsAreMeasured() throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        GithubApiClient clientToTest = new GithubApiClient(fullyFunctionalMockClient(), config, metricRegistry);
+
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(metricRegistry.meter(name(GithubApiClient.class, "principal-cache", "miss")).getCount(), Is.is(1L));
+        MatcherAssert.assertThat(metricRegistry.meter(name(GithubApiClient.class, "principal-cache", "hit")).getCount(), Is.is(1L));
+        MatcherAssert.assertThat(metricRegistry.timer(name(GithubApiClient.class, "principal-cache", "load")).getCount(), Is.is(1L));
+        MatcherAssert.assertThat(metricRegistry.timer(name(GithubApiClient.class, "request", "user")).getCount(), Is.is(1L));
+        MatcherAssert.assertThat(metricRegistry.timer(name(GithubApiClient.class, "request", "user-teams")).getCount(), Is.is(1L));
+        MatcherAssert.assertThat(metricRegistry.counter(name(GithubApiClient.class, "request", "user-orgs", "status", "200")).getCount(), Is.is(1L));
+    }
+
+    @Test
+    public void graphqlModeLoadsThePrincipalInASingleRequest() throws Exception {
+        HttpClient mockClient = graphqlMockClient();
+        config.setGraphqlEnabled(true);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().size(), Is.is(1));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().iterator().next(), Is.is("TEST-ORG/admin"));
+        MatcherAssert.assertThat(authorizedPrincipal.getUsername(), Is.is("demo-user"));
+        Mockito.verify(mockClient, Mockito.times(1)).execute(Mockito.any(HttpPost.class));
+        Mockito.verifyNoMoreInteractions(mockClient);
+    }
+
+    @Test(expected = GithubAuthenticationException.class)
+    public void graphqlModeDoesNotAuthenticateIfUserNotInOrg() throws Exception {
+        HttpClient mockClient = graphqlMockClient();
+        config.setGraphqlEnabled(true);
+        config.setGithubOrg("OTHER-ORG");
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+    }
+
+    @Test
+    public void graphqlModeLeavesOutOrganizationsGithubAnsweredWithAnError() throws Exception {
+        HttpClient mockClient = graphqlMockClient("{\"data\":{\"viewer\":{\"login\":\"demo-user\","
+                + "\"organizations\":{\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":null},\"nodes\":[{\"login\":\"TEST-ORG\","
+                + "\"teams\":{\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":null},\"nodes\":[{\"name\":\"admin\"}]}},null]}}},"
+                + "\"errors\":[{\"type\":\"FORBIDDEN\",\"path\":[\"viewer\",\"organizations\",\"nodes\",1],"
+                + "\"message\":\"Although you appear to have the correct authorization credentials, the organization has enabled OAuth App access restrictions.\"}]}");
+        config.setGraphqlEnabled(true);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles(), Is.is(Collections.singleton("TEST-ORG/admin")));
+    }
+
+    @Test
+    public void graphqlModeFailsOnErrorsWithoutData() throws Exception {
+        HttpClient mockClient = graphqlMockClient("{\"data\":null,\"errors\":[{\"type\":\"FORBIDDEN\",\"message\":\"Resource not accessible\"}]}");
+        config.setGraphqlEnabled(true);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubAuthenticationException failure =
+                Assert.assertThrows(GithubAuthenticationException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+
+        MatcherAssert.assertThat(failure instanceof GithubRejectedException, Is.is(false));
+    }
+
+    @Test
+    public void graphqlRateLimitFailsWithoutCallingGithubAgain() throws Exception {
+        HttpClient mockClient = graphqlMockClient("{\"data\":null,\"errors\":[{\"type\":\"RATE_LIMITED\",\"message\":\"API rate limit exceeded\"}]}");
+        config.setGraphqlEnabled(true);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        Assert.assertThrows(GithubRateLimitException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        Assert.assertThrows(GithubRateLimitException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+
+        Mockito.verify(mockClient, Mockito.times(1)).execute(Mockito.any(HttpPost.class));
+    }
+
     @Test(expected = GithubAuthenticationException.class)
     public void shouldNotAuthenticateIfRequestIsNot200() throws Exception {
         HttpClient mockClient = mock(HttpClient.class);
@@ -214,6 +406,81 @@ public class GithubApiClientTest {
         Mockito.verifyNoMoreInteractions(mockClient);
     }
 
+    @Test
+    public void cachedPrincipalIsKeyedByLoginAndToken() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            return answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+        });
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        // The same token in another array hits the cache
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(3));
+
+        // Another token of the same login does not
+        clientToTest.authz("demo-user", "OTHER-DUMMY".toCharArray());
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(6));
+    }
+
+    @Test
+    public void principalsWithTheSameTeamsShareTheirRoles() throws Exception {
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock ->
+                answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst"))));
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubPrincipal principal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        GithubPrincipal principalOfOtherToken = clientToTest.authz("demo-user", "OTHER-DUMMY".toCharArray());
+
+        Assert.assertNotSame(principal, principalOfOtherToken);
+        Assert.assertSame(principal.getRoles(), principalOfOtherToken.getRoles());
+    }
+
+    @Test
+    public void principalCacheRecordsStatistics() throws Exception {
+        HttpClient mockClient = fullyFunctionalMockClient();
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(clientToTest.getPrincipalCacheStats().missCount(), Is.is(1L));
+        MatcherAssert.assertThat(clientToTest.getPrincipalCacheStats().hitCount(), Is.is(1L));
+        MatcherAssert.assertThat(clientToTest.getPrincipalCacheStats().loadSuccessCount(), Is.is(1L));
+        MatcherAssert.assertThat(clientToTest.getPrincipalCacheStats().loadExceptionCount(), Is.is(0L));
+        MatcherAssert.assertThat(clientToTest.getPrincipalCacheSize(), Is.is(1L));
+    }
+
+    @Test
+    public void failedLoadsAreRecordedInTheStatistics() throws Exception {
+        HttpClient mockClient = fullyFunctionalMockClient();
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("other-user", "DUMMY".toCharArray()));
+
+        MatcherAssert.assertThat(clientToTest.getPrincipalCacheStats().loadSuccessCount(), Is.is(0L));
+        MatcherAssert.assertThat(clientToTest.getPrincipalCacheStats().loadExceptionCount(), Is.is(1L));
+    }
+
+    @Test
+    public void principalCacheIsBoundedByWeight() throws Exception {
+        MockGithubOauthConfiguration configWithTinyCache = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithTinyCache.setPrincipalCacheMaxWeight(1);
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock ->
+                answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst"))));
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configWithTinyCache);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(clientToTest.getPrincipalCacheSize(), Is.is(0L));
+        MatcherAssert.assertThat(clientToTest.getPrincipalCacheStats().evictionCount(), Is.is(1L));
+    }
+
     @Test
     public void shouldNotCheckOrgDuringAuthentication() throws Exception {
         HttpClient mockClient = fullyFunctionalMockClient();
@@ -255,6 +522,713 @@ public class GithubApiClientTest {
         Mockito.verifyNoMoreInteractions(mockClient);
     }
 
+    @Test
+    public void expiredPrincipalIsRevalidatedWithConditionalRequests() throws Exception {
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            HttpResponse response = answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+            when(response.getFirstHeader(HttpHeaders.ETAG)).thenReturn(new BasicHeader(HttpHeaders.ETAG, "\"v1\""));
+            return response;
+        });
+
+        GithubOauthConfiguration configWithShortCacheTtl = new MockGithubOauthConfiguration(Duration.ofMillis(1));
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configWithShortCacheTtl);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        // Wait a bit for the cache to become invalidated
+        Thread.sleep(10);
+
+        // Github answers all conditional requests with 304 Not Modified
+        Mockito.reset(mockClient);
+        List<String> sentEtags = Collections.synchronizedList(new ArrayList<>());
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            HttpGet request = (HttpGet) invocationOnMock.getArguments()[0];
+            sentEtags.add(request.getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue());
+            HttpResponse notModifiedResponse = mock(HttpResponse.class, Mockito.RETURNS_DEEP_STUBS);
+            when(notModifiedResponse.getStatusLine().getStatusCode()).thenReturn(304);
+            return notModifiedResponse;
+        });
+        GithubPrincipal revalidatedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(sentEtags, Is.is(Arrays.asList("\"v1\"", "\"v1\"", "\"v1\"")));
+        MatcherAssert.assertThat(revalidatedPrincipal.getUsername(), Is.is("demo-user"));
+        MatcherAssert.assertThat(revalidatedPrincipal.getRoles(), Is.is(authorizedPrincipal.getRoles()));
+    }
+
+    @Test
+    public void principalDueForRefreshIsServedWhileRefreshingInBackground() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            return answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+        });
+
+        MockGithubOauthConfiguration configWithRefresh = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithRefresh.setPrincipalCacheRefreshAfter(Duration.ofMillis(1));
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configWithRefresh);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(3));
+
+        // Wait a bit for the principal to become due for a refresh
+        Thread.sleep(10);
+
+        // The cached principal is returned right away, the refresh happens in the background
+        MatcherAssert.assertThat(clientToTest.authz("demo-user", "DUMMY".toCharArray()), Is.is(authorizedPrincipal));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (upstreamCalls.get() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(6));
+    }
+
+    @Test
+    public void refreshedPrincipalIsInvalidated() throws Exception {
+        MockGithubOauthConfiguration configWithRefresh = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithRefresh.setPrincipalCacheRefreshAfter(Duration.ofMillis(1));
+        GithubApiClient clientToTest = new GithubApiClient(fullyFunctionalMockClient(), configWithRefresh);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        MatcherAssert.assertThat(authorizedPrincipal.isInvalidated(), Is.is(false));
+
+        Thread.sleep(10);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!authorizedPrincipal.isInvalidated() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        MatcherAssert.assertThat(authorizedPrincipal.isInvalidated(), Is.is(true));
+    }
+
+    @Test
+    public void principalCacheIsRestoredFromSnapshotAfterRestart() throws Exception {
+        Path snapshot = Files.createTempDirectory("github-oauth").resolve("principals.bin");
+        MockGithubOauthConfiguration configWithSnapshot = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithSnapshot.setPrincipalCacheEncryptionKey(Base64.getEncoder().encodeToString(new byte[32]));
+        configWithSnapshot.setPrincipalCacheSnapshotPath(snapshot.toString());
+
+        GithubApiClient clientToTest = new GithubApiClient(fullyFunctionalMockClient(), configWithSnapshot);
+        clientToTest.start();
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        // Writes the snapshot
+        clientToTest.stop();
+
+        HttpClient mockClientAfterRestart = mock(HttpClient.class);
+        GithubApiClient clientAfterRestart = new GithubApiClient(mockClientAfterRestart, configWithSnapshot);
+        clientAfterRestart.start();
+        GithubPrincipal restoredPrincipal = clientAfterRestart.authz("demo-user", "DUMMY".toCharArray());
+        clientAfterRestart.stop();
+
+        Mockito.verifyNoMoreInteractions(mockClientAfterRestart);
+        MatcherAssert.assertThat(restoredPrincipal.getUsername(), Is.is("demo-user"));
+        MatcherAssert.assertThat(restoredPrincipal.getRoles(), Is.is(authorizedPrincipal.getRoles()));
+    }
+
+    @Test
+    public void principalCacheIsNotRestoredFromSnapshotOfAnotherOrganization() throws Exception {
+        Path snapshot = Files.createTempDirectory("github-oauth").resolve("principals.bin");
+        MockGithubOauthConfiguration configWithSnapshot = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithSnapshot.setPrincipalCacheEncryptionKey(Base64.getEncoder().encodeToString(new byte[32]));
+        configWithSnapshot.setPrincipalCacheSnapshotPath(snapshot.toString());
+
+        GithubApiClient clientToTest = new GithubApiClient(fullyFunctionalMockClient(), configWithSnapshot);
+        clientToTest.start();
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        clientToTest.stop();
+
+        configWithSnapshot.setGithubOrg("OTHER-ORG");
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        GithubApiClient clientAfterRestart = new GithubApiClient(countingMockClient(upstreamCalls, 401), configWithSnapshot);
+        clientAfterRestart.start();
+        try {
+            Assert.assertThrows(GithubRejectedException.class, () -> clientAfterRestart.authz("demo-user", "DUMMY".toCharArray()));
+            MatcherAssert.assertThat(upstreamCalls.get() > 0, Is.is(true));
+        } finally {
+            clientAfterRestart.stop();
+        }
+    }
+
+    @Test
+    public void principalCacheSnapshotIsOnlyReadableByItsOwnerAndLeavesOutTheLogin() throws Exception {
+        Path snapshot = Files.createTempDirectory("github-oauth").resolve("principals.bin");
+        MockGithubOauthConfiguration configWithSnapshot = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithSnapshot.setPrincipalCacheEncryptionKey(Base64.getEncoder().encodeToString(new byte[32]));
+        configWithSnapshot.setPrincipalCacheSnapshotPath(snapshot.toString());
+
+        GithubApiClient clientToTest = new GithubApiClient(fullyFunctionalMockClient(), configWithSnapshot);
+        clientToTest.start();
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        clientToTest.stop();
+
+        String content = new String(Files.readAllBytes(snapshot), StandardCharsets.ISO_8859_1);
+        MatcherAssert.assertThat(content.contains("demo-user"), Is.is(false));
+        if (Files.getFileStore(snapshot).supportsFileAttributeView("posix")) {
+            MatcherAssert.assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(snapshot)), Is.is("rw-------"));
+        }
+        // No temporary file is left behind
+        MatcherAssert.assertThat(snapshot.getParent().toFile().list().length, Is.is(1));
+    }
+
+    @Test
+    public void principalsAreSharedBetweenInstancesThroughADirectoryStore() throws Exception {
+        Path store = Files.createTempDirectory("github-oauth").resolve("principals");
+        MockGithubOauthConfiguration configWithStore = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithStore.setPrincipalCacheEncryptionKey(Base64.getEncoder().encodeToString(new byte[32]));
+        configWithStore.setPrincipalCacheStore("directory");
+        configWithStore.setPrincipalCacheStorePath(store.toString());
+
+        GithubApiClient firstInstance = new GithubApiClient(fullyFunctionalMockClient(), configWithStore);
+        HttpClient mockClientOfSecondInstance = mock(HttpClient.class);
+        GithubApiClient secondInstance = new GithubApiClient(mockClientOfSecondInstance, configWithStore);
+
+        GithubPrincipal authorizedPrincipal = firstInstance.authz("demo-user", "DUMMY".toCharArray());
+        GithubPrincipal sharedPrincipal = secondInstance.authz("demo-user", "DUMMY".toCharArray());
+
+        Mockito.verifyNoMoreInteractions(mockClientOfSecondInstance);
+        MatcherAssert.assertThat(sharedPrincipal.getUsername(), Is.is("demo-user"));
+        MatcherAssert.assertThat(sharedPrincipal.getRoles(), Is.is(authorizedPrincipal.getRoles()));
+    }
+
+    @Test
+    public void principalsAreNotSharedWithInstancesOfADifferentEncryptionKey() throws Exception {
+        Path store = Files.createTempDirectory("github-oauth").resolve("principals");
+        MockGithubOauthConfiguration configWithStore = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithStore.setPrincipalCacheEncryptionKey(Base64.getEncoder().encodeToString(new byte[32]));
+        configWithStore.setPrincipalCacheStore("directory");
+        configWithStore.setPrincipalCacheStorePath(store.toString());
+        MockGithubOauthConfiguration configWithOtherKey = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        byte[] otherKey = new byte[32];
+        Arrays.fill(otherKey, (byte) 1);
+        configWithOtherKey.setPrincipalCacheEncryptionKey(Base64.getEncoder().encodeToString(otherKey));
+        configWithOtherKey.setPrincipalCacheStore("directory");
+        configWithOtherKey.setPrincipalCacheStorePath(store.toString());
+
+        new GithubApiClient(fullyFunctionalMockClient(), configWithStore).authz("demo-user", "DUMMY".toCharArray());
+        HttpClient mockClientOfOtherInstance = fullyFunctionalMockClient();
+        new GithubApiClient(mockClientOfOtherInstance, configWithOtherKey).authz("demo-user", "DUMMY".toCharArray());
+
+        Mockito.verify(mockClientOfOtherInstance, Mockito.atLeastOnce()).execute(Mockito.any(HttpGet.class));
+    }
+
+    @Test
+    public void principalsAreNotSharedWithInstancesOfAnotherOrganization() throws Exception {
+        Path store = Files.createTempDirectory("github-oauth").resolve("principals");
+        MockGithubOauthConfiguration configWithStore = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithStore.setPrincipalCacheEncryptionKey(Base64.getEncoder().encodeToString(new byte[32]));
+        configWithStore.setPrincipalCacheStore("directory");
+        configWithStore.setPrincipalCacheStorePath(store.toString());
+        MockGithubOauthConfiguration configWithOtherOrg = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithOtherOrg.setPrincipalCacheEncryptionKey(Base64.getEncoder().encodeToString(new byte[32]));
+        configWithOtherOrg.setPrincipalCacheStore("directory");
+        configWithOtherOrg.setPrincipalCacheStorePath(store.toString());
+        configWithOtherOrg.setGithubOrg("OTHER-ORG");
+
+        new GithubApiClient(fullyFunctionalMockClient(), configWithStore).authz("demo-user", "DUMMY".toCharArray());
+        GithubApiClient otherInstance = new GithubApiClient(fullyFunctionalMockClient(), configWithOtherOrg);
+
+        Assert.assertThrows(GithubRejectedException.class, () -> otherInstance.authz("demo-user", "DUMMY".toCharArray()));
+    }
+
+    @Test
+    public void principalRejectedOnRefreshIsRemovedFromTheStore() throws Exception {
+        Path store = Files.createTempDirectory("github-oauth").resolve("principals");
+        MockGithubOauthConfiguration configWithStore = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithStore.setPrincipalCacheEncryptionKey(Base64.getEncoder().encodeToString(new byte[32]));
+        configWithStore.setPrincipalCacheStore("directory");
+        configWithStore.setPrincipalCacheStorePath(store.toString());
+        configWithStore.setPrincipalCacheRefreshAfter(Duration.ofMillis(1));
+
+        new GithubApiClient(fullyFunctionalMockClient(), configWithStore).authz("demo-user", "DUMMY".toCharArray());
+        // The token is revoked, the next instance restores the principal from the store and learns about it on the refresh
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        GithubApiClient secondInstance = new GithubApiClient(countingMockClient(upstreamCalls, 401), configWithStore);
+        secondInstance.authz("demo-user", "DUMMY".toCharArray());
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(0));
+        Thread.sleep(10);
+        secondInstance.authz("demo-user", "DUMMY".toCharArray());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (storedPrincipals(store) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        MatcherAssert.assertThat(storedPrincipals(store), Is.is(0L));
+        GithubApiClient thirdInstance = new GithubApiClient(countingMockClient(upstreamCalls, 401), configWithStore);
+        Assert.assertThrows(GithubRejectedException.class, () -> thirdInstance.authz("demo-user", "DUMMY".toCharArray()));
+    }
+
+    private static long storedPrincipals(Path store) throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.walk(store)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static void mockRateLimitHeaders(HttpResponse response, int remaining) {
+        String reset = String.valueOf(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 3600);
+        when(response.getFirstHeader("X-RateLimit-Remaining")).thenReturn(new BasicHeader("X-RateLimit-Remaining", String.valueOf(remaining)));
+        when(response.getFirstHeader("X-RateLimit-Reset")).thenReturn(new BasicHeader("X-RateLimit-Reset", reset));
+    }
+
+    @Test
+    public void exhaustedRateLimitFailsWithoutCallingGithubAgain() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            HttpResponse throttledResponse = mock(HttpResponse.class, Mockito.RETURNS_DEEP_STUBS);
+            when(throttledResponse.getStatusLine().getStatusCode()).thenReturn(403);
+            mockRateLimitHeaders(throttledResponse, 0);
+            return throttledResponse;
+        });
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+
+        Assert.assertThrows(GithubRateLimitException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        int callsUntilThrottled = upstreamCalls.get();
+        // Github would refuse any further call until the rate limit is reset
+        Assert.assertThrows(GithubRateLimitException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(callsUntilThrottled));
+    }
+
+    @Test
+    public void rejectedCredentialsAreRejectedAgainWithoutCallingGithub() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = countingMockClient(upstreamCalls, 401);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        int callsUntilRejected = upstreamCalls.get();
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(callsUntilRejected));
+        // Other credentials are still asked for
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "OTHER".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get() > callsUntilRejected, Is.is(true));
+    }
+
+    @Test
+    public void repeatedlyRejectedCredentialsAreRejectedByTheFilter() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = countingMockClient(upstreamCalls, 401);
+        // Every rejection is forgotten by the rejection cache right away
+        config.setRejectionCacheTtl(Duration.ZERO);
+        config.setRejectionFilterSize(1 << 18);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        for (int i = 0; i < config.getRejectionFilterThreshold(); i++) {
+            int callsBefore = upstreamCalls.get();
+            Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+            MatcherAssert.assertThat(upstreamCalls.get() > callsBefore, Is.is(true));
+        }
+        int callsUntilFiltered = upstreamCalls.get();
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(callsUntilFiltered));
+    }
+
+    @Test
+    public void saturatedRejectionFilterIsBypassed() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = countingMockClient(upstreamCalls, 401);
+        config.setRejectionCacheTtl(Duration.ZERO);
+        config.setRejectionFilterSize(16);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        // A flood of bogus tokens uses up most counters of the filter
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < config.getRejectionFilterThreshold(); j++) {
+                String token = "BOGUS-" + i;
+                Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", token.toCharArray()));
+            }
+        }
+        // From now on, the filter would mistake about any credentials for rejected ones, so Github is asked
+        int callsBefore = upstreamCalls.get();
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "BOGUS-0".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get() > callsBefore, Is.is(true));
+    }
+
+    @Test
+    public void forbiddenResponsesAreOnlyRememberedForBadCredentials() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = errorMockClient(upstreamCalls, 403, "{\"message\":\"Resource protected by organization SAML enforcement.\"}");
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        Assert.assertThrows(GithubAuthenticationException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        int callsUntilForbidden = upstreamCalls.get();
+        GithubAuthenticationException forbiddenAgain =
+                Assert.assertThrows(GithubAuthenticationException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        MatcherAssert.assertThat(forbiddenAgain instanceof GithubRejectedException, Is.is(false));
+        MatcherAssert.assertThat(upstreamCalls.get() > callsUntilForbidden, Is.is(true));
+
+        HttpClient badCredentialsClient = errorMockClient(upstreamCalls, 403, "{\"message\":\"Bad credentials\"}");
+        GithubApiClient badCredentialsClientToTest = new GithubApiClient(badCredentialsClient, config);
+        Assert.assertThrows(GithubRejectedException.class, () -> badCredentialsClientToTest.authz("demo-user", "DUMMY".toCharArray()));
+    }
+
+    @Test
+    public void secondaryRateLimitWithoutRetryAfterIsNotARejection() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = errorMockClient(upstreamCalls, 403,
+                "{\"message\":\"You have exceeded a secondary rate limit. Please wait a few minutes before you try again.\"}");
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        Assert.assertThrows(GithubRateLimitException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        int callsUntilThrottled = upstreamCalls.get();
+        // Held back instead of asking Github again right away, but not remembered as rejected either
+        Assert.assertThrows(GithubRateLimitException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(callsUntilThrottled));
+    }
+
+    @Test
+    public void unavailableGithubIsAskedAgain() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = countingMockClient(upstreamCalls, 502);
+        config.setRequestRetryMaxAttempts(1);
+        config.setCircuitBreakerFailureThreshold(100);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+
+        Assert.assertThrows(GithubUnavailableException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        int callsUntilFailed = upstreamCalls.get();
+        Assert.assertThrows(GithubUnavailableException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get() > callsUntilFailed, Is.is(true));
+    }
+
+    @Test
+    public void changedConfigurationIsAppliedWithoutRestart() throws Exception {
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock ->
+                answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst"))));
+        Path file = Files.createTempFile("githuboauth", ".properties");
+        writeConfiguration(file, "github.org=TEST-ORG\n");
+        GithubOauthConfiguration configuration = new GithubOauthConfiguration(file);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configuration);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        Mockito.verify(mockClient, Mockito.times(3)).execute(Mockito.any(HttpGet.class));
+
+        // The cached principal is carried over into the rebuilt cache
+        writeConfiguration(file, "github.org=TEST-ORG\ngithub.principal.cache.ttl=PT2H\n");
+        configuration.reload();
+        MatcherAssert.assertThat(configuration.getPrincipalCacheTtl(), Is.is(Duration.ofHours(2)));
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        Mockito.verify(mockClient, Mockito.times(3)).execute(Mockito.any(HttpGet.class));
+
+        // But not if it was checked against another organization
+        writeConfiguration(file, "github.org=OTHER-ORG\ngithub.principal.cache.ttl=PT2H\n");
+        configuration.reload();
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+    }
+
+    @Test
+    public void changedRateLimitReserveKeepsTheCircuitBreakerOpen() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            throw new ConnectException("Connection refused");
+        });
+        Path file = Files.createTempFile("githuboauth", ".properties");
+        writeConfiguration(file, "request.retry.max-attempts=1\nrequest.circuit-breaker.failure-threshold=1\n");
+        GithubOauthConfiguration configuration = new GithubOauthConfiguration(file);
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configuration);
+        Assert.assertThrows(GithubUnavailableException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        int callsUntilOpen = upstreamCalls.get();
+
+        writeConfiguration(file, "request.retry.max-attempts=1\nrequest.circuit-breaker.failure-threshold=1\ngithub.rate-limit.reserve=10\n");
+        configuration.reload();
+
+        MatcherAssert.assertThat(configuration.getRateLimitReserve(), Is.is(10));
+        Assert.assertThrows(GithubUnavailableException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(callsUntilOpen));
+    }
+
+    @Test
+    public void invalidConfigurationIsNotApplied() throws Exception {
+        Path file = Files.createTempFile("githuboauth", ".properties");
+        writeConfiguration(file, "github.principal.cache.ttl=PT2H\n");
+        GithubOauthConfiguration configuration = new GithubOauthConfiguration(file);
+        List<Set<String>> changes = new ArrayList<>();
+        configuration.addListener(changes::add);
+
+        writeConfiguration(file, "github.principal.cache.ttl=two hours\nrequest.executor.threads=8\n");
+        configuration.reload();
+
+        MatcherAssert.assertThat(configuration.getPrincipalCacheTtl(), Is.is(Duration.ofHours(2)));
+        MatcherAssert.assertThat(configuration.getRequestExecutorThreads() != 8, Is.is(true));
+        MatcherAssert.assertThat(changes.isEmpty(), Is.is(true));
+    }
+
+    @Test
+    public void numbersAreOnlyBoundedByTheTypeOfTheirProperty() throws Exception {
+        Path file = Files.createTempFile("githuboauth", ".properties");
+        writeConfiguration(file, "github.principal.cache.max-weight=4294967296\n");
+        GithubOauthConfiguration configuration = new GithubOauthConfiguration(file);
+
+        MatcherAssert.assertThat(configuration.getPrincipalCacheMaxWeight(), Is.is(4294967296L));
+
+        writeConfiguration(file, "github.principal.cache.max-weight=4294967296\nrequest.executor.threads=4294967296\n");
+        configuration.reload();
+        MatcherAssert.assertThat(configuration.getRequestExecutorThreads() > 0, Is.is(true));
+    }
+
+    @Test
+    public void invalidValueAtStartupKeepsTheOrganizationRestriction() throws Exception {
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock ->
+                answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst"))));
+        Path file = Files.createTempFile("githuboauth", ".properties");
+        writeConfiguration(file, "github.org=OTHER-ORG\ngithub.principal.cache.ttl=two hours\n");
+        GithubOauthConfiguration configuration = new GithubOauthConfiguration(file);
+
+        // Only the invalid value falls back to its default
+        MatcherAssert.assertThat(configuration.getPrincipalCacheTtl(), Is.is(Duration.ofMinutes(1)));
+        MatcherAssert.assertThat(configuration.getGithubAllowedOrgs(), Is.is(Collections.singleton("OTHER-ORG")));
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configuration);
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+    }
+
+    @Test
+    public void invalidRoleMappingAtStartupFailsTheConfiguration() throws Exception {
+        Path file = Files.createTempFile("githuboauth", ".properties");
+        writeConfiguration(file, "github.org=TEST-ORG\ngithub.roles.TEST-ORG.dney=admin\n");
+
+        Assert.assertThrows(IllegalStateException.class, () -> new GithubOauthConfiguration(file));
+    }
+
+    private void writeConfiguration(Path file, String properties) throws IOException {
+        Files.write(file, ("github.api.url=" + config.getGithubApiUrl() + "\n" + properties).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static HttpClient countingMockClient(AtomicInteger upstreamCalls, int statusCode) throws IOException {
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            HttpResponse mockResponse = mock(HttpResponse.class, Mockito.RETURNS_DEEP_STUBS);
+            when(mockResponse.getStatusLine().getStatusCode()).thenReturn(statusCode);
+            return mockResponse;
+        });
+        return mockClient;
+    }
+
+    private static HttpClient errorMockClient(AtomicInteger upstreamCalls, int statusCode, String body) throws IOException {
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            HttpResponse mockResponse = mock(HttpResponse.class, Mockito.RETURNS_DEEP_STUBS);
+            when(mockResponse.getStatusLine().getStatusCode()).thenReturn(statusCode);
+            when(mockResponse.getEntity().getContent()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+            return mockResponse;
+        });
+        return mockClient;
+    }
+
+    @Test
+    public void lastKnownPrincipalIsServedWhileRateLimitIsLow() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            HttpResponse response = answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+            mockRateLimitHeaders(response, 5);
+            return response;
+        });
+
+        MockGithubOauthConfiguration configWithShortCacheTtl = new MockGithubOauthConfiguration(Duration.ofMillis(1));
+        configWithShortCacheTtl.setRateLimitServeStale(true);
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configWithShortCacheTtl);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(3));
+
+        // Wait a bit for the cache to become invalidated
+        Thread.sleep(10);
+
+        MatcherAssert.assertThat(clientToTest.authz("demo-user", "DUMMY".toCharArray()), Is.is(authorizedPrincipal));
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(3));
+    }
+
+    @Test
+    public void lastKnownPrincipalIsNotServedOnceRejected() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        AtomicBoolean revoked = new AtomicBoolean();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            if (revoked.get()) {
+                HttpResponse rejected = mock(HttpResponse.class, Mockito.RETURNS_DEEP_STUBS);
+                when(rejected.getStatusLine().getStatusCode()).thenReturn(401);
+                mockRateLimitHeaders(rejected, 5);
+                return rejected;
+            }
+            HttpResponse response = answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+            mockRateLimitHeaders(response, 5000);
+            return response;
+        });
+
+        MockGithubOauthConfiguration configWithShortCacheTtl = new MockGithubOauthConfiguration(Duration.ofMillis(1));
+        configWithShortCacheTtl.setRateLimitServeStale(true);
+        configWithShortCacheTtl.setRejectionCacheTtl(Duration.ZERO);
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configWithShortCacheTtl);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        Thread.sleep(10);
+        revoked.set(true);
+        // Github rejects the token and reports a low budget along with it
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+
+        // The rejection is forgotten right away, the low budget would have the last known principal served without asking Github
+        int callsUntilRejected = upstreamCalls.get();
+        Assert.assertThrows(GithubRejectedException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get() > callsUntilRejected, Is.is(true));
+    }
+
+    @Test
+    public void lastKnownPrincipalIsNotServedOnceTooStale() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            HttpResponse response = answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+            mockRateLimitHeaders(response, 5);
+            return response;
+        });
+
+        MockGithubOauthConfiguration configWithShortCacheTtl = new MockGithubOauthConfiguration(Duration.ofMillis(1));
+        configWithShortCacheTtl.setRateLimitServeStale(true);
+        configWithShortCacheTtl.setPrincipalCacheMaxStale(Duration.ofMillis(200));
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configWithShortCacheTtl);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        Thread.sleep(10);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(3));
+
+        // Serving the last known principal did not make it any younger
+        Thread.sleep(250);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(6));
+    }
+
+    @Test
+    public void lastKnownPrincipalIsNotServedWhileRateLimitIsLowByDefault() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            HttpResponse response = answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+            mockRateLimitHeaders(response, 5);
+            return response;
+        });
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, new MockGithubOauthConfiguration(Duration.ofMillis(1)));
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        Thread.sleep(10);
+        clientToTest.authz("demo-user", "DUMMY".toCharArray());
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(6));
+    }
+
+    @Test
+    public void pooledConnectionsAreKeptAliveBetweenLogins() throws Exception {
+        try (GithubApiStubServer github = new GithubApiStubServer(0, 10)) {
+            MockGithubOauthConfiguration config = new MockGithubOauthConfiguration(Duration.ofDays(1));
+            config.setGithubApiUrl(github.getApiUrl());
+            config.setGithubOrg("");
+            GithubApiClient clientToTest = new GithubApiClient(config);
+            clientToTest.start();
+            try {
+                clientToTest.authz("user-0", "token-0".toCharArray());
+                int connectionsOfFirstLogin = github.getConnectionCount();
+                for (int i = 1; i < 5; i++) {
+                    clientToTest.authz("user-" + i, ("token-" + i).toCharArray());
+                }
+
+                MatcherAssert.assertThat(github.getRequestCount() > 5, Is.is(true));
+                MatcherAssert.assertThat(github.getConnectionCount(), Is.is(connectionsOfFirstLogin));
+            } finally {
+                clientToTest.stop();
+            }
+        }
+    }
+
+    @Test
+    public void pooledConnectionsAreReplacedAfterTheirTimeToLive() throws Exception {
+        try (GithubApiStubServer github = new GithubApiStubServer(0, 10)) {
+            MockGithubOauthConfiguration config = new MockGithubOauthConfiguration(Duration.ofDays(1));
+            config.setGithubApiUrl(github.getApiUrl());
+            config.setGithubOrg("");
+            config.setRequestPoolTimeToLive(1);
+            GithubApiClient clientToTest = new GithubApiClient(config);
+            clientToTest.start();
+            try {
+                clientToTest.authz("user-0", "token-0".toCharArray());
+                int connectionsOfFirstLogin = github.getConnectionCount();
+                Thread.sleep(10);
+                clientToTest.authz("user-1", "token-1".toCharArray());
+
+                MatcherAssert.assertThat(github.getConnectionCount() > connectionsOfFirstLogin, Is.is(true));
+            } finally {
+                clientToTest.stop();
+            }
+        }
+    }
+
+    @Test
+    public void serverErrorsAreRetried() throws Exception {
+        Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            if (failedOnce.add(((HttpGet) invocationOnMock.getArguments()[0]).getURI().toString())) {
+                HttpResponse mockResponse = mock(HttpResponse.class, Mockito.RETURNS_DEEP_STUBS);
+                when(mockResponse.getStatusLine().getStatusCode()).thenReturn(502);
+                return mockResponse;
+            }
+            return answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+        });
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().iterator().next(), Is.is("TEST-ORG/admin"));
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(6));
+    }
+
+    @Test
+    public void openCircuitFailsFastWithoutCallingGithub() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            throw new ConnectException("Connection refused");
+        });
+
+        MockGithubOauthConfiguration configWithCircuitBreaker = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithCircuitBreaker.setRequestRetryMaxAttempts(1);
+        configWithCircuitBreaker.setCircuitBreakerFailureThreshold(1);
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configWithCircuitBreaker);
+
+        Assert.assertThrows(GithubUnavailableException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        int callsUntilOpen = upstreamCalls.get();
+        Assert.assertThrows(GithubUnavailableException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(callsUntilOpen));
+    }
+
+    @Test
+    public void lastKnownPrincipalIsServedWhileGithubIsUnavailable() throws Exception {
+        HttpClient mockClient = fullyFunctionalMockClient();
+
+        MockGithubOauthConfiguration configWithCircuitBreaker = new MockGithubOauthConfiguration(Duration.ofMillis(1));
+        configWithCircuitBreaker.setRequestRetryMaxAttempts(1);
+        configWithCircuitBreaker.setCircuitBreakerFailureThreshold(1);
+        configWithCircuitBreaker.setCircuitBreakerServeStale(true);
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configWithCircuitBreaker);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        // Wait a bit for the cache to become invalidated
+        Thread.sleep(10);
+
+        Mockito.reset(mockClient);
+        when(mockClient.execute(Mockito.any())).thenThrow(new ConnectException("Connection refused"));
+        MatcherAssert.assertThat(clientToTest.authz("demo-user", "DUMMY".toCharArray()), Is.is(authorizedPrincipal));
+    }
+
     @Test
     public void shouldAcceptOrgAnywhereInList() throws Exception {
         HttpClient mockClient = fullyFunctionalMockClient();
@@ -269,4 +1243,175 @@ public class GithubApiClientTest {
         GithubPrincipal authorizedPrincipal2 = clientToTest2.authz("demo-user", "DUMMY".toCharArray());
         MatcherAssert.assertThat(authorizedPrincipal2.getRoles().iterator().next(), Is.is("TEST-ORG/admin"));
     }
+
+    private HttpClient slowCountingMockClient(AtomicInteger upstreamCalls, int statusCode) throws IOException {
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            upstreamCalls.incrementAndGet();
+            // Keep the load in flight long enough for all other callers to pile up behind it
+            Thread.sleep(200);
+            if (statusCode != 200) {
+                HttpResponse mockResponse = mock(HttpResponse.class, Mockito.RETURNS_DEEP_STUBS);
+                when(mockResponse.getStatusLine().getStatusCode()).thenReturn(statusCode);
+                return mockResponse;
+            }
+            return answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+        });
+        return mockClient;
+    }
+
+    private List<Future<GithubPrincipal>> authzConcurrently(GithubApiClient clientToTest, int callers) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<GithubPrincipal>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return clientToTest.authz("demo-user", "DUMMY".toCharArray());
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return results;
+    }
+
+    @Test
+    public void concurrentCacheMissesShareASingleGithubRoundTrip() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = slowCountingMockClient(upstreamCalls, 200);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        List<Future<GithubPrincipal>> results = authzConcurrently(clientToTest, 50);
+
+        GithubPrincipal first = results.get(0).get();
+        for (Future<GithubPrincipal> result : results) {
+            MatcherAssert.assertThat(result.get(), Is.is(first));
+        }
+        MatcherAssert.assertThat(first.getUsername(), Is.is("demo-user"));
+        // A single load of /user, /user/orgs and /user/teams regardless of the number of callers
+        MatcherAssert.assertThat(upstreamCalls.get(), Is.is(3));
+    }
+
+    @Test
+    public void concurrentCacheMissesShareASingleFailure() throws Exception {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        HttpClient mockClient = slowCountingMockClient(upstreamCalls, 401);
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        List<Future<GithubPrincipal>> results = authzConcurrently(clientToTest, 50);
+
+        for (Future<GithubPrincipal> result : results) {
+            try {
+                result.get();
+                Assert.fail("Expected the shared load to fail");
+            } catch (ExecutionException e) {
+                MatcherAssert.assertThat(e.getCause() instanceof GithubAuthenticationException, Is.is(true));
+            }
+        }
+        // At most the calls of the one shared load, which are started concurrently
+        MatcherAssert.assertThat(upstreamCalls.get() <= 3, Is.is(true));
+    }
+
+    @Test
+    public void coldLoginCallsGithubEndpointsConcurrently() throws Exception {
+        // Every call waits until all three calls are in flight, which only succeeds if they are not run one after another
+        CyclicBarrier allCallsInFlight = new CyclicBarrier(3);
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            allCallsInFlight.await(5, TimeUnit.SECONDS);
+            return answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+        });
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(authorizedPrincipal.getUsername(), Is.is("demo-user"));
+        MatcherAssert.assertThat(authorizedPrincipal.getRoles().iterator().next(), Is.is("TEST-ORG/admin"));
+    }
+
+    @Test
+    public void firstFailingCallCancelsTheOthers() throws Exception {
+        CountDownLatch neverReleased = new CountDownLatch(1);
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            String uriString = ((HttpGet) invocationOnMock.getArguments()[0]).getURI().toString();
+            if (uriString.equals(config.getGithubUserUri())) {
+                HttpResponse mockResponse = mock(HttpResponse.class, Mockito.RETURNS_DEEP_STUBS);
+                when(mockResponse.getStatusLine().getStatusCode()).thenReturn(401);
+                return mockResponse;
+            }
+            try {
+                neverReleased.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return null;
+        });
+
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, config);
+        long start = System.nanoTime();
+        try {
+            clientToTest.authz("demo-user", "DUMMY".toCharArray());
+            Assert.fail("Expected the authz to fail");
+        } catch (GithubAuthenticationException e) {
+            // expected
+        }
+
+        MatcherAssert.assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10, Is.is(true));
+    }
+
+    private HttpClient blockedMockClient(CountDownLatch githubAnswers) throws IOException {
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            githubAnswers.await(5, TimeUnit.SECONDS);
+            return answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+        });
+        return mockClient;
+    }
+
+    @Test
+    public void asyncAuthzDoesNotWaitForGithub() throws Exception {
+        CountDownLatch githubAnswers = new CountDownLatch(1);
+        GithubApiClient clientToTest = new GithubApiClient(blockedMockClient(githubAnswers), config);
+
+        CompletableFuture<GithubPrincipal> principal = clientToTest.authzAsync("demo-user", "DUMMY".toCharArray());
+        MatcherAssert.assertThat(principal.isDone(), Is.is(false));
+
+        githubAnswers.countDown();
+        MatcherAssert.assertThat(principal.get(5, TimeUnit.SECONDS).getUsername(), Is.is("demo-user"));
+    }
+
+    @Test
+    public void authzWaitsForGithubForABoundedTime() throws Exception {
+        CountDownLatch githubAnswers = new CountDownLatch(1);
+        MockGithubOauthConfiguration configWithShortTimeout = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithShortTimeout.setRequestAuthzTimeout(100);
+        GithubApiClient clientToTest = new GithubApiClient(blockedMockClient(githubAnswers), configWithShortTimeout);
+
+        try {
+            Assert.assertThrows(GithubUnavailableException.class, () -> clientToTest.authz("demo-user", "DUMMY".toCharArray()));
+        } finally {
+            githubAnswers.countDown();
+        }
+    }
+
+    @Test
+    public void virtualThreadModeFallsBackToPlatformThreadsOnOlderJdks() throws Exception {
+        Set<String> callingThreads = ConcurrentHashMap.newKeySet();
+        HttpClient mockClient = mock(HttpClient.class);
+        when(mockClient.execute(Mockito.any())).thenAnswer(invocationOnMock -> {
+            callingThreads.add(Thread.currentThread().getName());
+            return answerOnInvocation(invocationOnMock, createMockResponse(mockUser("Hans Wurst")));
+        });
+
+        MockGithubOauthConfiguration configWithVirtualThreads = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        configWithVirtualThreads.setRequestExecutorVirtualThreads("true");
+        GithubApiClient clientToTest = new GithubApiClient(mockClient, configWithVirtualThreads);
+        GithubPrincipal authorizedPrincipal = clientToTest.authz("demo-user", "DUMMY".toCharArray());
+
+        MatcherAssert.assertThat(authorizedPrincipal.getUsername(), Is.is("demo-user"));
+        // Either way, the calls are made by the request executor
+        MatcherAssert.assertThat(callingThreads.stream().allMatch(name -> name.startsWith("github-api-")), Is.is(true));
+    }
 }
@@ -0,0 +1,230 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the Github API that answers <code>/user</code>, <code>/user/orgs</code>, <code>/user/teams</code> and the GraphQL
+ * queries of the GraphQL mode after a fixed latency. The user of a token is derived from the token itself: <code>token-42</code> belongs to <code>user-42</code>.
+ * <p>
+ * Like Github, it pages <code>/user/teams</code> by <code>per_page</code> and <code>page</code> with a <code>Link</code> header, and counts
+ * every request against the hourly rate limit of its token, which it reports in the <code>X-RateLimit-*</code> headers and answers with 403
+ * once it is used up. GraphQL pages the teams of an organization by 100 with cursors. A share of the requests can be made to fail with a
+ * 502.
+ */
+public class GithubApiStubServer implements AutoCloseable {
+    private static final String API_PATH = "/api/v3";
+
+    private static final String GRAPHQL_PATH = "/api/graphql";
+
+    private static final int GRAPHQL_PAGE_SIZE = 100;
+
+    static {
+        // The JDK's server closes keep-alive connections beyond 200 idle ones, which the clients would then find to be stale
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections", "10000");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger throttled = new AtomicInteger();
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, AtomicInteger> rateLimitUsed = new ConcurrentHashMap<>();
+    private final long rateLimitReset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + TimeUnit.HOURS.toSeconds(1);
+    private final long latencyMillis;
+    private final String[] teams;
+    private volatile double errorRate;
+    private volatile int rateLimit = 5000;
+
+    public GithubApiStubServer(long latencyMillis, int teamCount) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.teams = new String[teamCount];
+        for (int i = 0; i < teamCount; i++) {
+            teams[i] = "{\"name\":\"team-" + i + "\",\"slug\":\"team-" + i + "\",\"organization\":{\"login\":\"TEST-ORG\"}}";
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1000);
+        server.createContext(API_PATH, this::handle);
+        server.createContext(GRAPHQL_PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getApiUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + API_PATH;
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of connections requests were made on, each connection has a port of its own on the client side
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return the number of requests that were answered with a 502 on purpose
+     */
+    public int getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @return the number of requests that were answered with a 403 because the rate limit of their token was used up
+     */
+    public int getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * @param errorRate the share of requests, between 0 and 1, to answer with a 502
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param rateLimit the number of requests each token may make within the hour
+     */
+    public void setRateLimit(int rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        connections.add(exchange.getRemoteAddress());
+        try {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String path = exchange.getRequestURI().getPath();
+        path = path.startsWith(API_PATH) ? path.substring(API_PATH.length()) : path;
+        if (authorization == null || !authorization.startsWith("token token-")) {
+            respond(exchange, 401, "{\"message\":\"Bad credentials\"}".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        int used = rateLimitUsed.computeIfAbsent(authorization, token -> new AtomicInteger()).incrementAndGet();
+        exchange.getResponseHeaders().set("X-RateLimit-Limit", String.valueOf(rateLimit));
+        exchange.getResponseHeaders().set("X-RateLimit-Remaining", String.valueOf(Math.max(0, rateLimit - used)));
+        exchange.getResponseHeaders().set("X-RateLimit-Used", String.valueOf(used));
+        exchange.getResponseHeaders().set("X-RateLimit-Reset", String.valueOf(rateLimitReset));
+        if (used > rateLimit) {
+            throttled.incrementAndGet();
+            respond(exchange, 403, "{\"message\":\"API rate limit exceeded\"}".getBytes(StandardCharsets.UTF_8));
+        } else if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            respond(exchange, 502, "{\"message\":\"Server Error\"}".getBytes(StandardCharsets.UTF_8));
+        } else if (path.equals("/user")) {
+            String user = "user-" + authorization.substring("token token-".length());
+            respond(exchange, 200, ("{\"login\":\"" + user + "\",\"name\":\"" + user + "\"}").getBytes(StandardCharsets.UTF_8));
+        } else if (path.equals(GRAPHQL_PATH)) {
+            respondToGraphql(exchange, "user-" + authorization.substring("token token-".length()));
+        } else if (path.equals("/user/orgs")) {
+            respond(exchange, 200, "[{\"login\":\"TEST-ORG\"}]".getBytes(StandardCharsets.UTF_8));
+        } else if (path.equals("/user/teams")) {
+            respondWithTeams(exchange);
+        } else {
+            respond(exchange, 404, "{\"message\":\"Not Found\"}".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void respondWithTeams(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+        int perPage = Math.min(100, Integer.parseInt(query.getOrDefault("per_page", "30")));
+        int page = Integer.parseInt(query.getOrDefault("page", "1"));
+        int lastPage = Math.max(1, (teams.length + perPage - 1) / perPage);
+
+        StringBuilder json = new StringBuilder("[");
+        for (int i = (page - 1) * perPage; i < Math.min(teams.length, page * perPage); i++) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(teams[i]);
+        }
+        if (page < lastPage) {
+            String uri = getApiUrl() + "/user/teams?per_page=" + perPage + "&page=";
+            exchange.getResponseHeaders().set("Link", "<" + uri + (page + 1) + ">; rel=\"next\", <" + uri + lastPage + ">; rel=\"last\"");
+        }
+        respond(exchange, 200, json.append(']').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void respondToGraphql(HttpExchange exchange, String user) throws IOException {
+        JsonNode variables = mapper.readTree(exchange.getRequestBody()).path("variables");
+        String json;
+        if (variables.has("organization")) {
+            json = "{\"data\":{\"organization\":{\"teams\":" + graphqlTeams(variables.path("teams").asInt(0)) + "}}}";
+        } else {
+            json = "{\"data\":{\"viewer\":{\"login\":\"" + user + "\",\"organizations\":{"
+                    + "\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":null},"
+                    + "\"nodes\":[{\"login\":\"TEST-ORG\",\"teams\":" + graphqlTeams(0) + "}]}}}}";
+        }
+        respond(exchange, 200, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param offset the index of the first team of the page, which is also the cursor the page is asked for with
+     */
+    private String graphqlTeams(int offset) {
+        int end = Math.min(teams.length, offset + GRAPHQL_PAGE_SIZE);
+        StringBuilder json = new StringBuilder("{\"pageInfo\":{\"hasNextPage\":").append(end < teams.length)
+                .append(",\"endCursor\":\"").append(end).append("\"},\"nodes\":[");
+        for (int i = offset; i < end; i++) {
+            json.append(i > offset ? "," : "").append("{\"name\":\"team-").append(i).append("\",\"slug\":\"team-").append(i).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,124 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import com.codahale.metrics.MetricRegistry;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubApiClient;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.MockGithubOauthConfiguration;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.SimpleAuthenticationInfo;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNot;
+import org.hamcrest.core.IsSame;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GithubOauthAuthenticatingRealmTest {
+    private final GithubOauthAuthenticatingRealm realm = new GithubOauthAuthenticatingRealm(mock(GithubApiClient.class));
+
+    @Test
+    public void authorizationInfoIsBuiltOncePerPrincipal() {
+        GithubPrincipal principal = new GithubPrincipal();
+        principal.setUsername("demo-user");
+        principal.setRoles(new HashSet<>(Arrays.asList("TEST-ORG/admin", "TEST-ORG/dev")));
+        SimplePrincipalCollection principals = new SimplePrincipalCollection(principal, GithubOauthAuthenticatingRealm.NAME);
+
+        AuthorizationInfo first = realm.doGetAuthorizationInfo(principals);
+
+        MatcherAssert.assertThat(new HashSet<>(first.getRoles()), Is.is(principal.getRoles()));
+        MatcherAssert.assertThat(realm.doGetAuthorizationInfo(principals), IsSame.sameInstance(first));
+    }
+
+    @Test
+    public void authorizationInfoIsRebuiltWhenTheRolesChange() {
+        GithubPrincipal principal = new GithubPrincipal();
+        principal.setUsername("demo-user");
+        principal.setRoles(new HashSet<>(Arrays.asList("TEST-ORG/admin")));
+        SimplePrincipalCollection principals = new SimplePrincipalCollection(principal, GithubOauthAuthenticatingRealm.NAME);
+        AuthorizationInfo first = realm.doGetAuthorizationInfo(principals);
+
+        principal.setRoles(new HashSet<>(Arrays.asList("TEST-ORG/dev")));
+
+        AuthorizationInfo second = realm.doGetAuthorizationInfo(principals);
+        MatcherAssert.assertThat(second, IsNot.not(IsSame.sameInstance(first)));
+        MatcherAssert.assertThat(second.getRoles().contains("TEST-ORG/dev"), Is.is(true));
+    }
+
+    @Test
+    public void cachedAuthenticationKeepsTheHashOfTheTokenOnly() throws Exception {
+        GithubPrincipal principal = new GithubPrincipal();
+        principal.setUsername("demo-user");
+        GithubApiClient client = mock(GithubApiClient.class);
+        when(client.authz(Mockito.eq("demo-user"), Mockito.any())).thenReturn(principal);
+        when(client.hashToken(Mockito.any())).thenAnswer(invocation -> keyedHash(invocation.getArgument(0)));
+        MockGithubOauthConfiguration config = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        config.setRealmCacheEnabled(true);
+        GithubOauthAuthenticatingRealm cachingRealm = new GithubOauthAuthenticatingRealm(client, config, new MetricRegistry());
+        UsernamePasswordToken token = new UsernamePasswordToken("demo-user", "DUMMY");
+
+        AuthenticationInfo info = cachingRealm.doGetAuthenticationInfo(token);
+
+        MatcherAssert.assertThat(info.getCredentials(), Is.is(keyedHash("DUMMY".toCharArray())));
+        MatcherAssert.assertThat(cachingRealm.getCredentialsMatcher().doCredentialsMatch(token, info), Is.is(true));
+        MatcherAssert.assertThat(cachingRealm.getCredentialsMatcher().doCredentialsMatch(new UsernamePasswordToken("demo-user", "OTHER"), info),
+                Is.is(false));
+        MatcherAssert.assertThat(cachingRealm.getAuthenticationCacheKey(token),
+                IsNot.not(Is.is(cachingRealm.getAuthenticationCacheKey(new UsernamePasswordToken("demo-user", "OTHER")))));
+    }
+
+    @Test
+    public void cachedAuthenticationIsRemovedByThePrincipalsOnLogout() throws Exception {
+        GithubPrincipal principal = new GithubPrincipal();
+        principal.setUsername("demo-user");
+        GithubApiClient client = mock(GithubApiClient.class);
+        when(client.authz(Mockito.eq("demo-user"), Mockito.any())).thenReturn(principal);
+        when(client.hashToken(Mockito.any())).thenAnswer(invocation -> keyedHash(invocation.getArgument(0)));
+        MockGithubOauthConfiguration config = new MockGithubOauthConfiguration(Duration.ofDays(1));
+        config.setRealmCacheEnabled(true);
+        GithubOauthAuthenticatingRealm cachingRealm = new GithubOauthAuthenticatingRealm(client, config, new MetricRegistry());
+        UsernamePasswordToken token = new UsernamePasswordToken("demo-user", "DUMMY");
+
+        AuthenticationInfo info = cachingRealm.getAuthenticationInfo(token);
+        MatcherAssert.assertThat(cachingRealm.getAuthenticationCache().size(), Is.is(1));
+
+        MatcherAssert.assertThat(cachingRealm.getAuthenticationCacheKey(info.getPrincipals()), Is.is(cachingRealm.getAuthenticationCacheKey(token)));
+        cachingRealm.onLogout(info.getPrincipals());
+
+        MatcherAssert.assertThat(cachingRealm.getAuthenticationCache().size(), Is.is(0));
+    }
+
+    private static byte[] keyedHash(char[] token) {
+        // Stands in for the HMAC of the client, which is all the realm relies on
+        byte[] hash = new String(token).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] ^= 0x5c;
+        }
+        return hash;
+    }
+
+    @Test
+    public void cachedAuthenticationOfAnInvalidatedPrincipalIsMissing() {
+        GithubPrincipal principal = new GithubPrincipal();
+        principal.setUsername("demo-user");
+        GithubRealmCache<Object, AuthenticationInfo> cache = new GithubRealmCache<>(Duration.ofMinutes(1), 10,
+                (key, info) -> ((GithubPrincipal) info.getPrincipals().getPrimaryPrincipal()).isInvalidated());
+        AuthenticationInfo info = new SimpleAuthenticationInfo(principal, new byte[0], GithubOauthAuthenticatingRealm.NAME);
+        cache.put("demo-user", info);
+        MatcherAssert.assertThat(cache.get("demo-user"), IsSame.sameInstance(info));
+
+        principal.invalidate();
+
+        MatcherAssert.assertThat(cache.get("demo-user"), Is.is((AuthenticationInfo) null));
+        MatcherAssert.assertThat(cache.size(), Is.is(0));
+    }
+}
@@ -0,0 +1,103 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin;
+
+import com.codahale.metrics.MetricRegistry;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api.GithubApiClient;
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration.MockGithubOauthConfiguration;
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.UsernamePasswordToken;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs thousands of concurrent authentications through {@link GithubOauthAuthenticatingRealm} against a {@link GithubApiStubServer} and
+ * reports their latency, the number of requests that reached Github and the hit ratio of the principal cache. Every authentication picks
+ * its user at random from a fixed number of users, so that most users log in more than once and are then served from the cache.
+ * <p>
+ * Run with <code>./mvnw verify -Pload-test</code>. The load is set with system properties: <code>load.authentications</code> (10000),
+ * <code>load.users</code> (2000), <code>load.threads</code> (200), <code>load.latency</code> in ms (50), <code>load.error-rate</code> (0.01),
+ * <code>load.rate-limit</code> per user and hour (5000), <code>load.teams</code> per user (10), <code>load.realm-cache</code> (false) and
+ * <code>load.graphql</code> (false).
+ */
+public final class RealmLoadDriver {
+    private RealmLoadDriver() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int authentications = Integer.getInteger("load.authentications", 10000);
+        int users = Integer.getInteger("load.users", 2000);
+        int threads = Integer.getInteger("load.threads", 200);
+        long latencyMillis = Long.getLong("load.latency", 50);
+        double errorRate = Double.parseDouble(System.getProperty("load.error-rate", "0.01"));
+        int rateLimit = Integer.getInteger("load.rate-limit", 5000);
+        int teams = Integer.getInteger("load.teams", 10);
+        boolean realmCache = Boolean.getBoolean("load.realm-cache");
+        boolean graphql = Boolean.getBoolean("load.graphql");
+
+        try (GithubApiStubServer github = new GithubApiStubServer(latencyMillis, teams)) {
+            github.setErrorRate(errorRate);
+            github.setRateLimit(rateLimit);
+
+            MockGithubOauthConfiguration config = new MockGithubOauthConfiguration(Duration.ofDays(1));
+            config.setGithubApiUrl(github.getApiUrl());
+            config.setGithubOrg("");
+            config.setRequestPoolSize(threads * 3);
+            config.setRealmCacheEnabled(realmCache);
+            config.setGraphqlEnabled(graphql);
+            GithubApiClient client = new GithubApiClient(config);
+            client.start();
+            GithubOauthAuthenticatingRealm realm = new GithubOauthAuthenticatingRealm(client, config, new MetricRegistry());
+
+            ExecutorService requestThreads = Executors.newFixedThreadPool(threads);
+            AtomicInteger failures = new AtomicInteger();
+            List<Long> latencies = new ArrayList<>(authentications);
+            long elapsed;
+            try {
+                List<Future<Long>> running = new ArrayList<>(authentications);
+                long start = System.nanoTime();
+                for (int i = 0; i < authentications; i++) {
+                    running.add(requestThreads.submit(() -> {
+                        int user = ThreadLocalRandom.current().nextInt(users);
+                        long authenticationStart = System.nanoTime();
+                        try {
+                            if (realm.getAuthenticationInfo(new UsernamePasswordToken("user-" + user, "token-" + user)) == null) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (AuthenticationException e) {
+                            failures.incrementAndGet();
+                        }
+                        return System.nanoTime() - authenticationStart;
+                    }));
+                }
+                for (Future<Long> latency : running) {
+                    latencies.add(latency.get());
+                }
+                elapsed = System.nanoTime() - start;
+            } finally {
+                requestThreads.shutdownNow();
+                client.stop();
+            }
+
+            latencies.sort(null);
+            System.out.printf("authentications=%d users=%d threads=%d total=%d ms throughput=%d/s%n", authentications, users, threads,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), authentications * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsed));
+            System.out.printf("latency p50=%.3f ms p99=%.3f ms max=%.3f ms%n", percentile(latencies, 50), percentile(latencies, 99),
+                    percentile(latencies, 100));
+            System.out.printf("failures=%d upstream-requests=%d upstream-errors=%d upstream-throttled=%d cache-hit-ratio=%.3f%n",
+                    failures.get(), github.getRequestCount(), github.getErrorCount(), github.getThrottledCount(),
+                    client.getPrincipalCacheStats().hitRate());
+        }
+    }
+
+    private static double percentile(List<Long> sortedNanos, int percentile) {
+        int index = Math.min(sortedNanos.size() - 1, sortedNanos.size() * percentile / 100);
+        return sortedNanos.get(index) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
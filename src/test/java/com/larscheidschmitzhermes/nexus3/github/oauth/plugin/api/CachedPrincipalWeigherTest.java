@@ -0,0 +1,52 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import com.larscheidschmitzhermes.nexus3.github.oauth.plugin.GithubPrincipal;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.core.Is;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class CachedPrincipalWeigherTest {
+    private final CachedPrincipalWeigher weigher = new CachedPrincipalWeigher();
+
+    private final RoleInterner roleInterner = new RoleInterner();
+
+    @Test
+    public void principalsWithMoreRolesWeighMore() {
+        int oneRole = weigh("user-1", roles("org/team-0"));
+        int twoRoles = weigh("user-1", roles("org/team-0", "org/team-1"));
+
+        MatcherAssert.assertThat(twoRoles > oneRole, Is.is(true));
+    }
+
+    @Test
+    public void principalsWithLongerRolesWeighMore() {
+        int shortRole = weigh("user-1", roles("org/a"));
+        int longRole = weigh("user-1", roles("org/a-team-with-a-much-longer-name"));
+
+        MatcherAssert.assertThat(longRole > shortRole, Is.is(true));
+    }
+
+    @Test
+    public void sharedRolesAreWeighedForEveryPrincipal() {
+        Set<String> shared = roleInterner.intern(roles("org/team-0", "org/team-1"));
+        Set<String> sameRoles = roleInterner.intern(roles("org/team-0", "org/team-1"));
+
+        MatcherAssert.assertThat(sameRoles == shared, Is.is(true));
+        MatcherAssert.assertThat(weigh("user-2", sameRoles), Is.is(weigh("user-2", roles("org/team-0", "org/team-1"))));
+    }
+
+    private int weigh(String login, Set<String> roles) {
+        GithubPrincipal principal = new GithubPrincipal();
+        principal.setUsername(login);
+        principal.setRoles(roles);
+        return weigher.weigh(new PrincipalCacheKey(login, new byte[32]), new CachedPrincipal(principal, 0));
+    }
+
+    private static Set<String> roles(String... roles) {
+        return new HashSet<>(Arrays.asList(roles));
+    }
+}
@@ -0,0 +1,30 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A team of a <code>/user/teams</code> page. The client reads the pages with {@link GithubTeamsParser} instead, the tests write their mock
+ * pages from these and the benchmarks bind the pages to them for comparison.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class GithubTeam {
+    private final String name;
+
+    private final GithubOrg organization;
+
+    @JsonCreator
+    public GithubTeam(@JsonProperty("name") String name, @JsonProperty("organization") GithubOrg organization) {
+        this.name = name;
+        this.organization = organization;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public GithubOrg getOrganization() {
+        return organization;
+    }
+}
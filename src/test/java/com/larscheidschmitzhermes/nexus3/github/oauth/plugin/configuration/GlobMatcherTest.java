@@ -0,0 +1,91 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GlobMatcherTest {
+    private final GlobMatcher<String> matcher = new GlobMatcher<>();
+
+    @Test
+    public void exactPatternsOnlyMatchThemselves() {
+        matcher.add("nexus", "exact");
+
+        MatcherAssert.assertThat(matcher.match("nexus"), Is.is("exact"));
+        Assert.assertNull(matcher.match("nexus-admins"));
+        Assert.assertNull(matcher.match("Nexus"));
+    }
+
+    @Test
+    public void exactPatternsTakePrecedenceOverGlobs() {
+        matcher.add("nexus-*", "glob");
+        matcher.add("nexus-admins", "exact");
+
+        MatcherAssert.assertThat(matcher.match("nexus-admins"), Is.is("exact"));
+        MatcherAssert.assertThat(matcher.match("nexus-developers"), Is.is("glob"));
+    }
+
+    @Test
+    public void firstMatchingGlobWins() {
+        matcher.add("*-admins", "first");
+        matcher.add("nexus-*", "second");
+
+        MatcherAssert.assertThat(matcher.match("nexus-admins"), Is.is("first"));
+        MatcherAssert.assertThat(matcher.match("nexus-developers"), Is.is("second"));
+    }
+
+    @Test
+    public void firstValueOfAPatternGivenTwiceWins() {
+        matcher.add("nexus-*", "first");
+        matcher.add("nexus-*", "second");
+        matcher.add("nexus", "first");
+        matcher.add("nexus", "second");
+
+        MatcherAssert.assertThat(matcher.match("nexus-admins"), Is.is("first"));
+        MatcherAssert.assertThat(matcher.match("nexus"), Is.is("first"));
+    }
+
+    @Test
+    public void leadingAndTrailingWildcardsMatchAnyPrefixAndSuffix() {
+        matcher.add("*admins", "leading");
+        matcher.add("nexus*", "trailing");
+
+        MatcherAssert.assertThat(matcher.match("admins"), Is.is("leading"));
+        MatcherAssert.assertThat(matcher.match("org-admins"), Is.is("leading"));
+        MatcherAssert.assertThat(matcher.match("nexus"), Is.is("trailing"));
+        MatcherAssert.assertThat(matcher.match("nexus-developers"), Is.is("trailing"));
+        Assert.assertNull(matcher.match("admins-of-nexus"));
+    }
+
+    @Test
+    public void multipleWildcardsMatchAnyCharactersInBetween() {
+        matcher.add("nexus-*-team-*", "multiple");
+
+        MatcherAssert.assertThat(matcher.match("nexus-core-team-admins"), Is.is("multiple"));
+        MatcherAssert.assertThat(matcher.match("nexus--team-"), Is.is("multiple"));
+        MatcherAssert.assertThat(matcher.match("nexus-a-team-b-team-c"), Is.is("multiple"));
+        Assert.assertNull(matcher.match("nexus-core-admins"));
+    }
+
+    @Test
+    public void consecutiveWildcardsMatchLikeASingleOne() {
+        matcher.add("nexus-**admins", "consecutive");
+
+        MatcherAssert.assertThat(matcher.match("nexus-admins"), Is.is("consecutive"));
+        MatcherAssert.assertThat(matcher.match("nexus-org-admins"), Is.is("consecutive"));
+    }
+
+    @Test
+    public void wildcardAloneMatchesEverything() {
+        matcher.add("*", "all");
+
+        MatcherAssert.assertThat(matcher.match(""), Is.is("all"));
+        MatcherAssert.assertThat(matcher.match("nexus-admins"), Is.is("all"));
+    }
+
+    @Test
+    public void emptyMatcherMatchesNothing() {
+        Assert.assertNull(matcher.match("nexus"));
+    }
+}
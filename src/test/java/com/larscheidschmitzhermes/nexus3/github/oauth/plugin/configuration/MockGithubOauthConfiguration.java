@@ -2,19 +2,98 @@ package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration;
 
 
 import java.time.Duration;
+import java.util.Properties;
+import java.util.Set;
 
 public class MockGithubOauthConfiguration extends GithubOauthConfiguration {
+    private String githubApiUrl = "http://github.example.com/api/v3";
+
+    private boolean graphqlEnabled;
+
     private Duration principalCacheTtl;
 
+    private Duration principalCacheRefreshAfter = Duration.ZERO;
+
+    private Long principalCacheMaxWeight;
+
+    private String principalCacheEncryptionKey = "";
+
+    private String principalCacheSnapshotPath = "";
+
+    private String principalCacheStore = "none";
+
+    private String principalCacheStorePath = "";
+
+    private Integer requestAuthzTimeout;
+
+    private Integer requestExecutorThreads;
+
+    private String requestExecutorVirtualThreads;
+
+    private Integer requestPoolSize;
+
+    private Integer requestPoolTimeToLive;
+
+    private Integer requestRetryMaxAttempts;
+
+    private Integer circuitBreakerFailureThreshold;
+
+    private Duration rejectionCacheTtl;
+
+    private Integer rejectionFilterSize;
+
+    private boolean circuitBreakerServeStale;
+
+    private boolean rateLimitServeStale;
+
+    private Duration principalCacheMaxStale;
+
+    private boolean realmCacheEnabled;
+
     private String org = "TEST-ORG";
 
+    private RoleMapping roleMapping = RoleMapping.compile(new Properties());
+
     public MockGithubOauthConfiguration(Duration principalCacheTtl) {
         this.principalCacheTtl = principalCacheTtl;
     }
 
     @Override
     public String getGithubApiUrl() {
-        return "http://github.example.com/api/v3";
+        return githubApiUrl;
+    }
+
+    public void setGithubApiUrl(String githubApiUrl) {
+        this.githubApiUrl = githubApiUrl;
+    }
+
+    @Override
+    public String getGithubUserUri() {
+        return githubUserUri(githubApiUrl);
+    }
+
+    @Override
+    public String getGithubUserTeamsUri() {
+        return githubUserTeamsUri(githubApiUrl);
+    }
+
+    @Override
+    public String getGithubUserOrgsUri() {
+        return githubUserOrgsUri(githubApiUrl);
+    }
+
+    @Override
+    public String getGithubGraphqlUri() {
+        return githubGraphqlUri(githubApiUrl, "");
+    }
+
+    @Override
+    public boolean isGraphqlEnabled() {
+        return graphqlEnabled;
+    }
+
+    public void setGraphqlEnabled(boolean graphqlEnabled) {
+        this.graphqlEnabled = graphqlEnabled;
     }
 
     @Override
@@ -22,6 +101,182 @@ public class MockGithubOauthConfiguration extends GithubOauthConfiguration {
         return principalCacheTtl;
     }
 
+    @Override
+    public long getPrincipalCacheMaxWeight() {
+        return principalCacheMaxWeight == null ? super.getPrincipalCacheMaxWeight() : principalCacheMaxWeight;
+    }
+
+    public void setPrincipalCacheMaxWeight(long principalCacheMaxWeight) {
+        this.principalCacheMaxWeight = principalCacheMaxWeight;
+    }
+
+    @Override
+    public Duration getPrincipalCacheRefreshAfter() {
+        return principalCacheRefreshAfter;
+    }
+
+    public void setPrincipalCacheRefreshAfter(Duration principalCacheRefreshAfter) {
+        this.principalCacheRefreshAfter = principalCacheRefreshAfter;
+    }
+
+    @Override
+    public String getPrincipalCacheEncryptionKey() {
+        return principalCacheEncryptionKey;
+    }
+
+    public void setPrincipalCacheEncryptionKey(String principalCacheEncryptionKey) {
+        this.principalCacheEncryptionKey = principalCacheEncryptionKey;
+    }
+
+    @Override
+    public String getPrincipalCacheSnapshotPath() {
+        return principalCacheSnapshotPath;
+    }
+
+    public void setPrincipalCacheSnapshotPath(String principalCacheSnapshotPath) {
+        this.principalCacheSnapshotPath = principalCacheSnapshotPath;
+    }
+
+    @Override
+    public String getPrincipalCacheStore() {
+        return principalCacheStore;
+    }
+
+    public void setPrincipalCacheStore(String principalCacheStore) {
+        this.principalCacheStore = principalCacheStore;
+    }
+
+    @Override
+    public String getPrincipalCacheStorePath() {
+        return principalCacheStorePath;
+    }
+
+    public void setPrincipalCacheStorePath(String principalCacheStorePath) {
+        this.principalCacheStorePath = principalCacheStorePath;
+    }
+
+    @Override
+    public int getRequestAuthzTimeout() {
+        return requestAuthzTimeout == null ? super.getRequestAuthzTimeout() : requestAuthzTimeout;
+    }
+
+    public void setRequestAuthzTimeout(int requestAuthzTimeout) {
+        this.requestAuthzTimeout = requestAuthzTimeout;
+    }
+
+    @Override
+    public int getRequestExecutorThreads() {
+        return requestExecutorThreads == null ? super.getRequestExecutorThreads() : requestExecutorThreads;
+    }
+
+    public void setRequestExecutorThreads(int requestExecutorThreads) {
+        this.requestExecutorThreads = requestExecutorThreads;
+    }
+
+    @Override
+    public String getRequestExecutorVirtualThreads() {
+        return requestExecutorVirtualThreads == null ? super.getRequestExecutorVirtualThreads() : requestExecutorVirtualThreads;
+    }
+
+    public void setRequestExecutorVirtualThreads(String requestExecutorVirtualThreads) {
+        this.requestExecutorVirtualThreads = requestExecutorVirtualThreads;
+    }
+
+    @Override
+    public int getRequestPoolMaxTotal() {
+        return requestPoolSize == null ? super.getRequestPoolMaxTotal() : requestPoolSize;
+    }
+
+    @Override
+    public int getRequestPoolMaxPerRoute() {
+        return requestPoolSize == null ? super.getRequestPoolMaxPerRoute() : requestPoolSize;
+    }
+
+    public void setRequestPoolSize(int requestPoolSize) {
+        this.requestPoolSize = requestPoolSize;
+    }
+
+    @Override
+    public int getRequestPoolTimeToLive() {
+        return requestPoolTimeToLive == null ? super.getRequestPoolTimeToLive() : requestPoolTimeToLive;
+    }
+
+    public void setRequestPoolTimeToLive(int requestPoolTimeToLive) {
+        this.requestPoolTimeToLive = requestPoolTimeToLive;
+    }
+
+    @Override
+    public Duration getRejectionCacheTtl() {
+        return rejectionCacheTtl == null ? super.getRejectionCacheTtl() : rejectionCacheTtl;
+    }
+
+    public void setRejectionCacheTtl(Duration rejectionCacheTtl) {
+        this.rejectionCacheTtl = rejectionCacheTtl;
+    }
+
+    @Override
+    public int getRejectionFilterSize() {
+        return rejectionFilterSize == null ? super.getRejectionFilterSize() : rejectionFilterSize;
+    }
+
+    public void setRejectionFilterSize(int rejectionFilterSize) {
+        this.rejectionFilterSize = rejectionFilterSize;
+    }
+
+    @Override
+    public int getRequestRetryMaxAttempts() {
+        return requestRetryMaxAttempts == null ? super.getRequestRetryMaxAttempts() : requestRetryMaxAttempts;
+    }
+
+    public void setRequestRetryMaxAttempts(int requestRetryMaxAttempts) {
+        this.requestRetryMaxAttempts = requestRetryMaxAttempts;
+    }
+
+    @Override
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold == null ? super.getCircuitBreakerFailureThreshold() : circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    @Override
+    public boolean isCircuitBreakerServeStale() {
+        return circuitBreakerServeStale;
+    }
+
+    public void setCircuitBreakerServeStale(boolean circuitBreakerServeStale) {
+        this.circuitBreakerServeStale = circuitBreakerServeStale;
+    }
+
+    @Override
+    public boolean isRateLimitServeStale() {
+        return rateLimitServeStale;
+    }
+
+    public void setRateLimitServeStale(boolean rateLimitServeStale) {
+        this.rateLimitServeStale = rateLimitServeStale;
+    }
+
+    @Override
+    public Duration getPrincipalCacheMaxStale() {
+        return principalCacheMaxStale == null ? super.getPrincipalCacheMaxStale() : principalCacheMaxStale;
+    }
+
+    public void setPrincipalCacheMaxStale(Duration principalCacheMaxStale) {
+        this.principalCacheMaxStale = principalCacheMaxStale;
+    }
+
+    @Override
+    public boolean isRealmCacheEnabled() {
+        return realmCacheEnabled;
+    }
+
+    public void setRealmCacheEnabled(boolean realmCacheEnabled) {
+        this.realmCacheEnabled = realmCacheEnabled;
+    }
+
     @Override
     public String getGithubOrg() {
         return org;
@@ -30,4 +285,22 @@ public class MockGithubOauthConfiguration extends GithubOauthConfiguration {
     public void setGithubOrg(String org) {
         this.org = org;
     }
+
+    @Override
+    public Set<String> getGithubAllowedOrgs() {
+        return githubAllowedOrgs(org == null ? "" : org);
+    }
+
+    @Override
+    public RoleMapping getRoleMapping() {
+        return roleMapping;
+    }
+
+    public void setRoleMapping(String... properties) {
+        Properties roleMappingProperties = new Properties();
+        for (int i = 0; i + 1 < properties.length; i += 2) {
+            roleMappingProperties.setProperty(properties[i], properties[i + 1]);
+        }
+        roleMapping = RoleMapping.compile(roleMappingProperties);
+    }
 }
@@ -0,0 +1,137 @@
+package com.larscheidschmitzhermes.nexus3.github.oauth.plugin.configuration;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class RoleMappingTest {
+    private static RoleMapping compile(String... keysAndValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return RoleMapping.compile(properties);
+    }
+
+    @Test
+    public void teamsBecomeOrganizationRolesWithoutRules() {
+        RoleMapping mapping = compile();
+
+        MatcherAssert.assertThat(mapping.getTeamKey(), Is.is("name"));
+        MatcherAssert.assertThat(mapping.map("example", "Nexus Admins"), Is.is("example/Nexus Admins"));
+    }
+
+    @Test
+    public void teamsCanBeIdentifiedBySlug() {
+        RoleMapping mapping = compile("github.roles.key", " slug ");
+
+        MatcherAssert.assertThat(mapping.getTeamKey(), Is.is("slug"));
+    }
+
+    @Test
+    public void unknownTeamKeyIsRejected() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> compile("github.roles.key", "id"));
+    }
+
+    @Test
+    public void allowAndDenyLeaveOutTeams() {
+        RoleMapping mapping = compile(
+                "github.roles.example.allow", "nexus-*, *-admins",
+                "github.roles.example.deny", "nexus-legacy");
+
+        MatcherAssert.assertThat(mapping.map("example", "nexus-developers"), Is.is("example/nexus-developers"));
+        MatcherAssert.assertThat(mapping.map("example", "org-admins"), Is.is("example/org-admins"));
+        Assert.assertNull(mapping.map("example", "nexus-legacy"));
+        Assert.assertNull(mapping.map("example", "marketing"));
+    }
+
+    @Test
+    public void emptyAllowDeniesAllTeams() {
+        RoleMapping mapping = compile("github.roles.example.allow", "");
+
+        Assert.assertNull(mapping.map("example", "nexus-developers"));
+        Assert.assertNull(mapping.map("example", ""));
+    }
+
+    @Test
+    public void renameCollapsesTeamsIntoARole() {
+        RoleMapping mapping = compile("github.roles.example.rename", "*-admins=nx-admin, nexus-developers = nx-developer");
+
+        MatcherAssert.assertThat(mapping.map("example", "org-admins"), Is.is("nx-admin"));
+        MatcherAssert.assertThat(mapping.map("example", "repo-admins"), Is.is("nx-admin"));
+        MatcherAssert.assertThat(mapping.map("example", "nexus-developers"), Is.is("nx-developer"));
+        MatcherAssert.assertThat(mapping.map("example", "marketing"), Is.is("example/marketing"));
+    }
+
+    @Test
+    public void exactRenameTakesPrecedenceOverPatterns() {
+        RoleMapping mapping = compile("github.roles.example.rename", "*-admins=nx-admin, org-admins=owner");
+
+        MatcherAssert.assertThat(mapping.map("example", "org-admins"), Is.is("owner"));
+        MatcherAssert.assertThat(mapping.map("example", "repo-admins"), Is.is("nx-admin"));
+    }
+
+    @Test
+    public void firstMatchingRenameWins() {
+        RoleMapping mapping = compile("github.roles.example.rename", "nexus-*=nx-user, *-admins=nx-admin");
+
+        MatcherAssert.assertThat(mapping.map("example", "nexus-admins"), Is.is("nx-user"));
+    }
+
+    @Test
+    public void wildcardOrganizationRulesApplyToOrganizationsWithoutRules() {
+        RoleMapping mapping = compile(
+                "github.roles.*.allow", "",
+                "github.roles.example.allow", "nexus-*");
+
+        MatcherAssert.assertThat(mapping.map("example", "nexus-developers"), Is.is("example/nexus-developers"));
+        Assert.assertNull(mapping.map("example", "marketing"));
+        Assert.assertNull(mapping.map("other", "nexus-developers"));
+    }
+
+    @Test
+    public void organizationsAreMatchedRegardlessOfCase() {
+        RoleMapping mapping = compile("github.roles.Example.deny", "nexus-legacy");
+
+        Assert.assertNull(mapping.map("example", "nexus-legacy"));
+        Assert.assertNull(mapping.map("EXAMPLE", "nexus-legacy"));
+        // The role keeps the login as Github returns it
+        MatcherAssert.assertThat(mapping.map("EXAMPLE", "nexus-developers"), Is.is("EXAMPLE/nexus-developers"));
+    }
+
+    @Test
+    public void ruleGivenForTwoCasesOfAnOrganizationIsRejected() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> compile(
+                "github.roles.example.deny", "nexus-legacy",
+                "github.roles.EXAMPLE.deny", "marketing"));
+    }
+
+    @Test
+    public void malformedRenameIsRejected() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> compile("github.roles.example.rename", "nexus-admins"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> compile("github.roles.example.rename", "=nx-admin"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> compile("github.roles.example.rename", "nexus-admins="));
+    }
+
+    @Test
+    public void unknownRuleIsRejected() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> compile("github.roles.example.permit", "nexus-*"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> compile("github.roles..allow", "nexus-*"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> compile("github.roles.allow", "nexus-*"));
+    }
+
+    @Test
+    public void definitionIsIndependentOfThePropertyOrder() {
+        RoleMapping mapping = compile(
+                "github.roles.example.allow", "nexus-*",
+                "github.roles.example.deny", " nexus-legacy");
+        RoleMapping sameMapping = compile(
+                "github.roles.example.deny", "nexus-legacy ",
+                "github.roles.example.allow", "nexus-*");
+
+        MatcherAssert.assertThat(mapping.getDefinition(), Is.is(sameMapping.getDefinition()));
+    }
+}